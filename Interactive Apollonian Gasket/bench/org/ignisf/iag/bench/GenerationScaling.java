@@ -0,0 +1,75 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.bench;
+
+import java.util.concurrent.ForkJoinPool;
+import org.ignisf.iag.descartes.ApollonianSet;
+import org.ignisf.iag.descartes.SoddyCircle;
+
+/**
+ * Measures the time needed to generate an Apollonian set from level 5 to
+ * level 16 and prints the cost per circle, which stays flat when the
+ * generation scales linearly in the number of circles.
+ *
+ * Usage: GenerationScaling [from level] [to level] [parallel]
+ *
+ * Level 16 holds about 129 million circles and needs a heap of about 4GB.
+ * @author Petko Bordjukov
+ */
+public class GenerationScaling {
+
+    /**
+     * The outer generator.
+     */
+    static final SoddyCircle A1 = new SoddyCircle(0, 0, -1, -1);
+
+    /**
+     * The second generator.
+     */
+    static final SoddyCircle A2 = new SoddyCircle(-0.5, 0, 2, -1);
+
+    /**
+     * The third generator.
+     */
+    static final SoddyCircle A3 = new SoddyCircle(0.5, 0, 2, -1);
+
+    /**
+     * Main method of the benchmark.
+     * @param args The first and the last level and whether to generate
+     * on the common fork/join pool.
+     */
+    public static void main(String[] args) {
+        int from = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int to = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        ForkJoinPool pool = args.length > 2 && "parallel".equals(args[2])
+                ? ForkJoinPool.commonPool() : null;
+
+        /* Warming up the generator. */
+        for (int i = 0; i < 20; i++) new ApollonianSet(A1, A2, A3, 8, pool);
+
+        System.out.println("level\tcircles\tms\tns/circle");
+        for (int n = from; n <= to; n++) {
+            long circles = ApollonianSet.size(n);
+
+            /**
+             * Small levels are repeated so that the timer resolution does not
+             * dominate the measurement.
+             */
+            int runs = (int) Math.max(1, Math.min(1000, 10000000L / circles));
+            long best = Long.MAX_VALUE;
+
+            for (int r = 0; r < runs; r++) {
+                long start = System.nanoTime();
+                ApollonianSet s = new ApollonianSet(A1, A2, A3, n, pool);
+                long time = System.nanoTime() - start;
+                if (s.size() != circles) throw new IllegalStateException();
+                best = Math.min(best, time);
+            }
+
+            System.out.printf("%d\t%d\t%.3f\t%.2f%n", n, circles,
+                    best / 1e6, (double) best / circles);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.ignisf.iag.descartes.ApollonianSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to generate a whole Apollonian set by level.
+ *
+ * Level 14 holds about 14 million circles and needs a heap of about 1GB.
+ * @author Petko Bordjukov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ApollonianSetBenchmark {
+
+    /**
+     * The maximum level of the set.
+     */
+    @Param({"5", "6", "7", "8", "9", "10", "11", "12", "13", "14"})
+    public int level;
+
+    @Benchmark
+    public ApollonianSet generate() {
+        return new ApollonianSet(GenerationScaling.A1, GenerationScaling.A2,
+                GenerationScaling.A3, level);
+    }
+}
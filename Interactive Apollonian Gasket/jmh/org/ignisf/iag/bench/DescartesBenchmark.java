@@ -0,0 +1,141 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.ignisf.iag.descartes.DescartesTheorem;
+import org.ignisf.iag.descartes.SoddyCircle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the primitive Descartes theorem kernels, over the
+ * configurations of a real gasket so that the inputs are not constant.
+ * @author Petko Bordjukov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DescartesBenchmark {
+
+    /**
+     * The number of configurations cycled through.
+     */
+    private static final int COUNT = 1 << 12;
+
+    /**
+     * The configurations - mother and three ancestors as x, y, k each.
+     */
+    private double[] q;
+
+    /**
+     * The output of the kernels.
+     */
+    private double[] out = new double[6];
+
+    /**
+     * The next configuration.
+     */
+    private int i;
+
+    /**
+     * The level of the mothers picked.
+     */
+    private static final int LEVEL = 9;
+
+    /**
+     * Pick random mothers of a level 10 gasket, each with the three
+     * circles tangent to it and its sister. The frontier of LEVEL is built
+     * the way ApollonianSet builds it, so every configuration is a real
+     * Descartes configuration.
+     */
+    @Setup
+    public void setup() {
+        SoddyCircle[] g = {GenerationScaling.A1, GenerationScaling.A2,
+                GenerationScaling.A3};
+
+        /* The two children of the generators, each with the generators. */
+        double[] f = new double[2 * 12];
+        int o = 0;
+        for (SoddyCircle c : DescartesTheorem.complexDescartes(g[0], g[1],
+                g[2])) {
+            f[o++] = c.x; f[o++] = c.y; f[o++] = c.k;
+            for (SoddyCircle a : g) {
+                f[o++] = a.x; f[o++] = a.y; f[o++] = a.k;
+            }
+        }
+
+        /* The daughters reflect a1, a3 and a2, as in ApollonianSet. */
+        for (int l = 0; l < LEVEL; l++) {
+            double[] h = new double[f.length * 3];
+            for (o = 0; o < f.length; o += 12) {
+                int p = o * 3;
+                p = DescartesBenchmark.heir(f, o, 3, 6, 9, h, p);
+                p = DescartesBenchmark.heir(f, o, 9, 3, 6, h, p);
+                DescartesBenchmark.heir(f, o, 6, 9, 3, h, p);
+            }
+            f = h;
+        }
+
+        Random random = new Random(42);
+        q = new double[COUNT * 12];
+        for (int c = 0; c < COUNT; c++)
+            System.arraycopy(f, random.nextInt(f.length / 12) * 12,
+                    q, c * 12, 12);
+    }
+
+    /**
+     * Write a daughter of a configuration with the circles of its gap.
+     * @param f The configurations of the mothers.
+     * @param o The offset of the configuration of the mother.
+     * @param r The offset in it of the circle reflected.
+     * @param p The offset in it of the second circle of the gap.
+     * @param s The offset in it of the third circle of the gap.
+     * @param h The configurations of the daughters.
+     * @param at The offset of the configuration of the daughter.
+     * @return The offset of the next configuration.
+     */
+    private static int heir(double[] f, int o, int r, int p, int s,
+            double[] h, int at) {
+        DescartesTheorem.getDaughter(f[o], f[o+1], f[o+2], f[o+r],
+                f[o+r+1], f[o+r+2], f[o+p], f[o+p+1], f[o+p+2], f[o+s],
+                f[o+s+1], f[o+s+2], h, at);
+        System.arraycopy(f, o, h, at + 3, 3);
+        System.arraycopy(f, o + p, h, at + 6, 3);
+        System.arraycopy(f, o + s, h, at + 9, 3);
+        return at + 12;
+    }
+
+    @Benchmark
+    public double[] getDaughter() {
+        int o = (i++ & (COUNT - 1)) * 12;
+        DescartesTheorem.getDaughter(q[o], q[o+1], q[o+2], q[o+3], q[o+4],
+                q[o+5], q[o+6], q[o+7], q[o+8], q[o+9], q[o+10], q[o+11],
+                out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public double[] complexDescartes() {
+        int o = (i++ & (COUNT - 1)) * 12;
+        DescartesTheorem.descartes(q[o+2], q[o+5], q[o+8], out, 0);
+        DescartesTheorem.complexDescartes(q[o], q[o+1], q[o+2], q[o+3],
+                q[o+4], q[o+5], q[o+6], q[o+7], q[o+8], out[0], out[1],
+                out, 0);
+        return out;
+    }
+}
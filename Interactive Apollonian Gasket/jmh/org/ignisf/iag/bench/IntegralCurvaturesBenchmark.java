@@ -0,0 +1,63 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.bench;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import org.ignisf.iag.descartes.IntegralCurvatures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to enumerate the curvatures of the integral packing -1, 2, 2, 3 by
+ * level, to compare with ApollonianSetBenchmark.
+ * @author Petko Bordjukov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IntegralCurvaturesBenchmark {
+
+    /**
+     * The maximum level of the packing.
+     */
+    @Param({"5", "6", "7", "8", "9", "10", "11", "12", "13", "14"})
+    public int level;
+
+    /**
+     * Sums the curvatures, so that they are not optimised away.
+     */
+    private static final class Sum implements IntegralCurvatures.Visitor {
+        long sum;
+
+        public void visit(long k, int level) {
+            sum += k;
+        }
+
+        public void visit(BigInteger k, int level) {
+            sum += k.longValue();
+        }
+    }
+
+    @Benchmark
+    public long enumerate() {
+        IntegralCurvatures c = new IntegralCurvatures(-1, 2, 2, 3);
+        c.setMaxLevel(level);
+        Sum s = new Sum();
+        c.forEach(s);
+        return s.sum;
+    }
+}
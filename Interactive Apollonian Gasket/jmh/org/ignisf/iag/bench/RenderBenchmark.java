@@ -0,0 +1,90 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.bench;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.ignisf.iag.descartes.ApollonianLimits;
+import org.ignisf.iag.descartes.ApollonianSet;
+import org.ignisf.iag.frontend.GasketJPanel;
+import org.ignisf.iag.frontend.GasketRenderer;
+import org.ignisf.iag.frontend.SoddyCircle2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to draw a frame of the panel into an off-screen image, as the
+ * background renderer of GasketJPanel does, with and without generating
+ * the gasket first.
+ * @author Petko Bordjukov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+
+    /**
+     * The size of the frame.
+     */
+    private static final int WIDTH = 800, HEIGHT = 600;
+
+    /**
+     * The maximum level of the gasket.
+     */
+    @Param({"5", "8", "11", "14"})
+    public int level;
+
+    /**
+     * The generators, filling the frame like in the panel.
+     */
+    private SoddyCircle2D[] generators;
+
+    /**
+     * The limits of the panel.
+     */
+    private ApollonianLimits limits;
+
+    /**
+     * The generated gasket.
+     */
+    private ApollonianSet set;
+
+    @Setup
+    public void setup() {
+        generators = new SoddyCircle2D[] {
+            new SoddyCircle2D(400, 300, -1/250d, -1),
+            new SoddyCircle2D(275, 300, 1/125d, -1),
+            new SoddyCircle2D(525, 300, 1/125d, -1)};
+        limits = new ApollonianLimits(level);
+        limits.setMinRadius(GasketJPanel.MIN_RADIUS);
+        limits.setViewport(new Rectangle(WIDTH, HEIGHT));
+        set = new GasketRenderer(generators, limits, WIDTH, HEIGHT).generate();
+    }
+
+    @Benchmark
+    public BufferedImage generateAndRender() {
+        return new GasketRenderer(generators, limits, WIDTH, HEIGHT).render();
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        GasketRenderer r = new GasketRenderer(generators, limits, WIDTH, HEIGHT);
+        r.setSet(set);
+        return r.render();
+    }
+}
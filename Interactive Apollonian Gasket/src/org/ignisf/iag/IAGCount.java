@@ -0,0 +1,106 @@
+/*
+ * IAGCount.java
+ */
+
+package org.ignisf.iag;
+
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import org.ignisf.iag.descartes.CurvatureCounter;
+
+/**
+ * Command line counter of the circles of integral packings. Prints N(X),
+ * the number of circles of curvature at most X, with the time it took, and
+ * optionally a histogram of the curvatures and their counts by residue
+ * class.
+ *
+ * Usage: IAGCount [-histogram width] [-modulus q] [-sequential]
+ * k1 k2 k3 k4 X
+ *
+ * The packing is given by a Descartes quadruple of integer curvatures, e.g.
+ * -1 2 2 3, with a negative curvature for the bounding circle.
+ */
+public class IAGCount {
+
+    /**
+     * The usage message.
+     */
+    private static final String USAGE = "Usage: IAGCount [-histogram width]"
+            + " [-modulus q] [-sequential] k1 k2 k3 k4 X";
+
+    /**
+     * Count the circles of a packing.
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        try {
+            System.exit(count(args));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Parse the arguments, count and print the counts.
+     * @param args The command line arguments.
+     * @return The exit status.
+     */
+    public static int count(String[] args) {
+        long width = 0;
+        int modulus = 0;
+        boolean sequential = false;
+
+        long[] k = new long[5];
+        int n = 0;
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("-histogram")) {
+                width = Long.parseLong(value(args, ++i));
+            } else if (a.equals("-modulus")) {
+                modulus = Integer.parseInt(value(args, ++i));
+            } else if (a.equals("-sequential")) {
+                sequential = true;
+            } else if (n < 5) {
+                k[n++] = Long.parseLong(a);
+            } else {
+                throw new IllegalArgumentException("Unexpected argument: " + a);
+            }
+        }
+        if (n < 5)
+            throw new IllegalArgumentException("Missing arguments");
+
+        CurvatureCounter counter =
+                new CurvatureCounter(k[0], k[1], k[2], k[3], k[4]);
+        counter.setBinWidth(width);
+        counter.setModulus(modulus);
+        CurvatureCounter.Counts counts =
+                counter.count(sequential ? null : ForkJoinPool.commonPool());
+
+        System.out.println(String.format(Locale.ROOT,
+                "N(%d) = %d: counted in %.1f ms", counts.getMaxCurvature(),
+                counts.getCount(), counts.getTime() / 1e6));
+        long[] histogram = counts.getHistogram();
+        for (int i = 0; histogram != null && i < histogram.length; i++)
+            System.out.println(String.format(Locale.ROOT, "%d\t%d",
+                    i * width, histogram[i]));
+        long[] residues = counts.getResidues();
+        for (int i = 0; residues != null && i < residues.length; i++)
+            System.out.println(String.format(Locale.ROOT, "%d mod %d\t%d",
+                    i, modulus, residues[i]));
+        return 0;
+    }
+
+    /**
+     * Get the value of an option.
+     * @param args The command line arguments.
+     * @param i The index of the value.
+     * @return The value.
+     */
+    private static String value(String[] args, int i){
+        if (i >= args.length)
+            throw new IllegalArgumentException("Missing value of " + args[i-1]);
+        return args[i];
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * IAGRender.java
+ */
+
+package org.ignisf.iag;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+import org.ignisf.iag.descartes.ApollonianLimits;
+import org.ignisf.iag.descartes.ApollonianSet;
+import org.ignisf.iag.frontend.GasketJPanel;
+import org.ignisf.iag.frontend.GasketRenderer;
+import org.ignisf.iag.frontend.SVGExporter;
+import org.ignisf.iag.frontend.SoddyCircle2D;
+
+/**
+ * Command line renderer of gaskets. Renders off-screen, so it runs on
+ * headless machines, and writes a PNG, or an SVG streamed as the circles
+ * are generated when the file ends in .svg or, compressed, .svgz.
+ *
+ * Usage: IAGRender [-level n] [-radius r] [-size WIDTHxHEIGHT] [-transparent]
+ * [-precision decimals] x1,y1,k1 x2,y2,k2 x3,y3,k3 file.png|file.svg[z]
+ *
+ * The generators are given by center and curvature in pixels of the image,
+ * with a negative curvature for a circle enclosing the others.
+ */
+public class IAGRender {
+
+    /**
+     * The default size of the image.
+     */
+    public static final int WIDTH = 800, HEIGHT = 600;
+
+    /**
+     * The usage message.
+     */
+    private static final String USAGE = "Usage: IAGRender [-level n]"
+            + " [-radius r] [-size WIDTHxHEIGHT] [-transparent]"
+            + " [-precision decimals] x1,y1,k1 x2,y2,k2 x3,y3,k3"
+            + " file.png|file.svg[z]";
+
+    /**
+     * Render a gasket to a PNG or an SVG.
+     * @param args The command line arguments.
+     */
+    public static void main(String[] args) {
+        if (System.getProperty("java.awt.headless") == null)
+            System.setProperty("java.awt.headless", "true");
+
+        try {
+            System.exit(render(args));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parse the arguments, render and write the image.
+     * @param args The command line arguments.
+     * @return The exit status.
+     * @throws IOException When the image can not be written.
+     */
+    public static int render(String[] args) throws IOException {
+        int level = ApollonianLimits.MAX_LEVEL;
+        double radius = GasketJPanel.MIN_RADIUS;
+        int width = WIDTH, height = HEIGHT;
+        boolean transparent = false;
+        int precision = 3;
+
+        SoddyCircle2D[] generators = new SoddyCircle2D[3];
+        int n = 0;
+        File file = null;
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("-level")) {
+                level = Integer.parseInt(value(args, ++i));
+            } else if (a.equals("-radius")) {
+                radius = Double.parseDouble(value(args, ++i));
+            } else if (a.equals("-size")) {
+                String[] s = value(args, ++i).split("x");
+                if (s.length != 2)
+                    throw new IllegalArgumentException("Bad size: " + args[i]);
+                width = Integer.parseInt(s[0]);
+                height = Integer.parseInt(s[1]);
+            } else if (a.equals("-precision")) {
+                precision = Integer.parseInt(value(args, ++i));
+            } else if (a.equals("-transparent")) {
+                transparent = true;
+            } else if (n < 3) {
+                generators[n++] = circle(a);
+            } else if (file == null) {
+                file = new File(a);
+            } else {
+                throw new IllegalArgumentException("Unexpected argument: " + a);
+            }
+        }
+        if (file == null)
+            throw new IllegalArgumentException("Missing arguments");
+
+        ApollonianLimits limits = new ApollonianLimits(level);
+        limits.setMinRadius(radius);
+        limits.setViewport(new Rectangle(width, height));
+
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".svg") || name.endsWith(".svgz")) {
+            SVGExporter exporter =
+                    new SVGExporter(generators, limits, width, height);
+            exporter.setPrecision(precision);
+            exporter.setGzip(name.endsWith(".svgz"));
+
+            long start = System.nanoTime();
+            long count = exporter.write(file);
+            System.out.println(String.format(Locale.ROOT,
+                    "%d circles: generated and written in %.1f ms", count,
+                    (System.nanoTime() - start) / 1e6));
+            return 0;
+        }
+
+        GasketRenderer renderer =
+                new GasketRenderer(generators, limits, width, height);
+
+        long start = System.nanoTime();
+        ApollonianSet set = renderer.generate();
+        long generated = System.nanoTime();
+        BufferedImage image = renderer.render();
+        long rasterized = System.nanoTime();
+
+        if (!transparent) {
+            BufferedImage opaque = new BufferedImage(width, height,
+                    BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = opaque.createGraphics();
+            g2d.setColor(Color.white);
+            g2d.fillRect(0, 0, width, height);
+            g2d.drawImage(image, 0, 0, null);
+            g2d.dispose();
+            image = opaque;
+        }
+        if (!ImageIO.write(image, "png", file))
+            throw new IOException("No PNG writer available");
+        long written = System.nanoTime();
+
+        System.out.println(String.format(Locale.ROOT,
+                "%d circles: generated in %.1f ms, rasterized in %.1f ms,"
+                + " written in %.1f ms", set.size(),
+                (generated - start) / 1e6, (rasterized - generated) / 1e6,
+                (written - rasterized) / 1e6));
+        return 0;
+    }
+
+    /**
+     * Get the value of an option.
+     * @param args The command line arguments.
+     * @param i The index of the value.
+     * @return The value.
+     */
+    private static String value(String[] args, int i){
+        if (i >= args.length)
+            throw new IllegalArgumentException("Missing value of " + args[i-1]);
+        return args[i];
+    }
+
+    /**
+     * Parse a generator.
+     * @param s The generator as x,y,k.
+     * @return The generator.
+     */
+    private static SoddyCircle2D circle(String s){
+        String[] c = s.split(",");
+        if (c.length != 3)
+            throw new IllegalArgumentException("Bad circle: " + s);
+        return new SoddyCircle2D(Double.parseDouble(c[0]),
+                Double.parseDouble(c[1]), Double.parseDouble(c[2]), -1);
+    }
+}
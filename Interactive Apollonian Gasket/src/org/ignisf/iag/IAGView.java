@@ -13,7 +13,8 @@ import org.jdesktop.application.Task;
 import org.jdesktop.application.TaskMonitor;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.beans.EventHandler;
+import java.awt.image.BufferedImage;
+import java.util.Map;
 import java.beans.PropertyChangeListener;
 import javax.swing.Timer;
 import javax.swing.Icon;
@@ -305,8 +306,11 @@ public class IAGView extends FrameView {
         gasketPanel = new GasketJPanel(this);
         gasketPanel.setName("gasketPanel");
         gasketContainer.add(gasketPanel);
-        gasketPanel.addPropertyChangeListener(
-            (PropertyChangeListener)EventHandler.create(PropertyChangeListener.class, new Thread(repaintAction()), "start"));
+        gasketPanel.addPropertyChangeListener(new PropertyChangeListener() {
+            public void propertyChange(PropertyChangeEvent evt) {
+                gasketPanelPropertyChange(evt);
+            }
+        });
 
         setComponent(mainPanel);
         setMenuBar(menuBar);
@@ -314,28 +318,42 @@ public class IAGView extends FrameView {
         setToolBar(mainToolbar);
     }// </editor-fold>//GEN-END:initComponents
 
+    private void gasketPanelPropertyChange(java.beans.PropertyChangeEvent evt) {
+        String propertyName = evt.getPropertyName();
+        if (GasketJPanel.PROP_NEEDREPAINT.equals(propertyName)
+                && Boolean.TRUE.equals(evt.getNewValue())) {
+            repaintTask = (RepaintActionTask) repaintAction();
+            getApplication().getContext().getTaskService().execute(repaintTask);
+        } else if (GasketJPanel.PROP_FRAME.equals(propertyName)
+                && repaintTask != null && repaintTask.renderer != null
+                && !gasketPanel.isCurrent(repaintTask.renderer)) {
+            // The frame in flight is superseded - drop it. Its finished()
+            // repaints, which starts rendering the current frame.
+            repaintTask.cancel(true);
+        }
+    }
+
     private void jSpinner1PropertyChange(java.beans.PropertyChangeEvent evt) {//GEN-FIRST:event_jSpinner1PropertyChange
         if(Integer.parseInt(this.jSpinner1.getValue().toString()) < 0) this.jSpinner1.setValue(0);
         else {
-            this.gasketPanel.level = Integer.parseInt(this.jSpinner1.getValue().toString());
-            this.gasketPanel.repaint();
+            this.gasketPanel.setLevel(Integer.parseInt(this.jSpinner1.getValue().toString()));
         }
     }//GEN-LAST:event_jSpinner1PropertyChange
 
     @Action
-    public Task clearButtonAction() {
+    public void clearButtonAction() {
         this.gasketPanel.reset();
-        return new RepaintActionTask(getApplication());
+        this.gasketPanel.repaint();
     }
 
     @Action
     public void saveButtonAction() {
     }
 
-        @Action(block = Task.BlockingScope.APPLICATION)
-    public Task zoomInAction() {
+    @Action
+    public void zoomInAction() {
         this.gasketPanel.zoom(1.3);
-        return new RepaintActionTask(getApplication());
+        this.gasketPanel.repaint();
     }
 
     private class ZoomInActionTask extends org.jdesktop.application.Task<Object, Void> {
@@ -358,33 +376,33 @@ public class IAGView extends FrameView {
     }
 
     @Action
-    public Task zoomOutAction() {
+    public void zoomOutAction() {
         this.gasketPanel.zoom(0.7);
-        return new RepaintActionTask(getApplication());
+        this.gasketPanel.repaint();
     }
 
     @Action
-    public Task scrollLeftAction() {
+    public void scrollLeftAction() {
         this.gasketPanel.shift(50, 0);
-        return new RepaintActionTask(getApplication());
+        this.gasketPanel.repaint();
     }
 
     @Action
-    public Task scrollRightAction() {
+    public void scrollRightAction() {
         this.gasketPanel.shift(-50, 0);
-        return new RepaintActionTask(getApplication());
+        this.gasketPanel.repaint();
     }
 
     @Action
-    public Task scrollUpAction() {
+    public void scrollUpAction() {
         this.gasketPanel.shift(0, 50);
-        return new RepaintActionTask(getApplication());
+        this.gasketPanel.repaint();
     }
 
     @Action
-    public Task scrollDownAction() {
+    public void scrollDownAction() {
         this.gasketPanel.shift(0, -50);
-        return new RepaintActionTask(getApplication());
+        this.gasketPanel.repaint();
     }
 
     @Action
@@ -399,25 +417,60 @@ public class IAGView extends FrameView {
     public Task repaintAction() {
         return new RepaintActionTask(getApplication());
     }
-    private class RepaintActionTask extends org.jdesktop.application.Task<Object, Void> {
+    private class RepaintActionTask extends org.jdesktop.application.Task<Map<TileCache.Key, BufferedImage>, Void> {
+        /**
+         * The renderer of the missing tiles, null if there is nothing to
+         * render.
+         */
+        private final TileRenderer renderer;
+
+        /**
+         * The picker of the circles under the mouse, null if the current
+         * one will do or none is wanted.
+         */
+        private final GasketPicker picker;
+
         RepaintActionTask(org.jdesktop.application.Application app) {
-            // Runs on the EDT.  Copy GUI state that
-            // doInBackground() depends on from parameters
-            // to ScrollLeftActionTask fields, here.
+            // Runs on the EDT.  The renderer and the picker hold a copy of
+            // the state of the panel, so doInBackground() does not touch
+            // the GUI.
             super(app);
+            renderer = gasketPanel.createRenderer();
+            picker = gasketPanel.createPicker();
         }
-        @Override protected Object doInBackground() {
-            // Your Task's code here.  This method runs
-            // on a background thread, so don't reference
-            // the Swing GUI from here.
-                this.setMessage("Drawing");
-                this.setProgress(0);
-            gasketPanel.repaint();
-            return null;  // return your result
+        @Override protected Map<TileCache.Key, BufferedImage> doInBackground() {
+            if (renderer == null) {
+                if (picker != null) picker.build();
+                return null;
+            }
+
+            final int count = renderer.getTiles().size();
+            this.setMessage("Drawing " + count + " tiles");
+            this.setProgress(0);
+            renderer.addPropertyChangeListener(new PropertyChangeListener() {
+                public void propertyChange(PropertyChangeEvent evt) {
+                    setProgress((Integer) evt.getNewValue(), 0, count);
+                }
+            });
+            Map<TileCache.Key, BufferedImage> tiles = renderer.render();
+            if (picker != null) picker.build();
+            return tiles;
         }
-        @Override protected void succeeded(Object result) {
-            // Runs on the EDT.  Update the GUI based on
-            // the result computed by doInBackground().
+        @Override protected void succeeded(Map<TileCache.Key, BufferedImage> result) {
+            // Runs on the EDT - hand the tiles and the picker over to the
+            // panel and keep what the frame cost in the status bar.
+            if (picker != null) gasketPanel.setPicker(picker);
+            if (result == null) return;
+            gasketPanel.addTiles(renderer, result);
+            if (renderer.getMetrics() != null) {
+                messageTimer.stop();
+                statusMessageLabel.setText(renderer.getMetrics().toString());
+            }
+        }
+        @Override protected void finished() {
+            if (repaintTask == this) repaintTask = null;
+            gasketPanel.setNeedRepaint(false);
+            if (this.isCancelled()) gasketPanel.repaint();
         }
     }
 
@@ -454,4 +507,9 @@ public class IAGView extends FrameView {
     private int busyIconIndex = 0;
 
     private JDialog aboutBox;
+
+    /**
+     * The task rendering the frame in flight, null if there is none.
+     */
+    private RepaintActionTask repaintTask;
 }
@@ -0,0 +1,315 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.descartes;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Limits of the generation of an Apollonian set.
+ *
+ * Every generated circle is part of the set, but its daughters are only
+ * generated while its level is below the maximum level and its radius is
+ * not below the minimum radius. Limiting by radius rather than by level
+ * refines large gaps further than small ones, giving uniform detail at a
+ * fraction of the circles.
+ *
+ * When a viewport is set, the subtrees that can not reach it are not
+ * generated either. All descendants of a circle lie in the curvilinear
+ * triangle it was inscribed in. The circle through the three points of
+ * tangency of the sides of the triangle is orthogonal to them and
+ * separates the two triangles the sides bound; when the inscribed circle is
+ * inside it, so is the whole triangle, and the subtree is skipped if it
+ * misses the viewport.
+ * @author Petko Bordjukov
+ */
+public class ApollonianLimits {
+
+    /**
+     * The precision of the arithmetic of the generation.
+     */
+    public enum Precision {
+        /**
+         * Double precision.
+         */
+        DOUBLE,
+
+        /**
+         * Double-double precision - about twice as slow.
+         */
+        EXTENDED,
+
+        /**
+         * Double precision, unless the gasket is so much larger than the
+         * viewport that the rounding errors would show.
+         */
+        AUTO
+    }
+
+    /**
+     * The ratio of the extent of the generators to the size of the viewport
+     * above which the automatic precision is extended. The error of double
+     * precision grows in proportion to it and at this ratio is about 2^-22
+     * of the viewport, well before it can show.
+     */
+    public static final double EXTENDED_RATIO = 0x1p37;
+
+    /**
+     * The deepest level a circle can have.
+     */
+    public static final int MAX_LEVEL = Byte.MAX_VALUE;
+
+    /**
+     * The maximum level of the set.
+     */
+    protected int maxLevel;
+
+    /**
+     * The radius below which circles get no daughters, 0 for none.
+     */
+    protected double minRadius;
+
+    /**
+     * The maximum number of circles in a materialised set.
+     */
+    protected int maxCircles = SoddyCircleStore.MAX_CAPACITY;
+
+    /**
+     * The region the circles are generated for, null for everywhere.
+     */
+    protected Rectangle2D viewport;
+
+    /**
+     * The precision of the arithmetic.
+     */
+    protected Precision precision = Precision.AUTO;
+
+    /**
+     * The bounds of the viewport.
+     */
+    private double minX, minY, maxX, maxY;
+
+    /**
+     * Create limits by maximum level.
+     * @param maxLevel The maximum level.
+     */
+    public ApollonianLimits(int maxLevel) {
+        this.setMaxLevel(maxLevel);
+    }
+
+    /**
+     * Create limits by minimum radius and maximum number of circles. The
+     * level is limited only by MAX_LEVEL.
+     * @param minRadius The radius below which circles get no daughters.
+     * @param maxCircles The maximum number of circles in a materialised set.
+     */
+    public ApollonianLimits(double minRadius, int maxCircles) {
+        this(MAX_LEVEL);
+        this.setMinRadius(minRadius);
+        this.setMaxCircles(maxCircles);
+    }
+
+    /**
+     * Get the value of maxLevel
+     *
+     * @return the value of maxLevel
+     */
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * Set the value of maxLevel
+     *
+     * @param maxLevel new value of maxLevel
+     */
+    public final void setMaxLevel(int maxLevel) {
+        if (maxLevel > MAX_LEVEL)
+            throw new IllegalArgumentException("Level " + maxLevel
+                    + " is too deep");
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * Get the value of minRadius
+     *
+     * @return the value of minRadius
+     */
+    public double getMinRadius() {
+        return minRadius;
+    }
+
+    /**
+     * Set the value of minRadius
+     *
+     * @param minRadius new value of minRadius, 0 for none
+     */
+    public final void setMinRadius(double minRadius) {
+        this.minRadius = minRadius;
+    }
+
+    /**
+     * Get the value of maxCircles
+     *
+     * @return the value of maxCircles
+     */
+    public int getMaxCircles() {
+        return maxCircles;
+    }
+
+    /**
+     * Set the value of maxCircles. The budget applies to materialised sets,
+     * which leave out the first level that does not fit in it whole; lazy
+     * traversals can be cut with Stream.limit().
+     *
+     * @param maxCircles new value of maxCircles
+     */
+    public final void setMaxCircles(int maxCircles) {
+        this.maxCircles = maxCircles;
+    }
+
+    /**
+     * Get the value of viewport
+     *
+     * @return the value of viewport
+     */
+    public Rectangle2D getViewport() {
+        return viewport;
+    }
+
+    /**
+     * Set the value of viewport
+     *
+     * @param viewport new value of viewport, null for everywhere
+     */
+    public final void setViewport(Rectangle2D viewport) {
+        this.viewport = viewport;
+        if (viewport != null) {
+            this.minX = viewport.getMinX();
+            this.minY = viewport.getMinY();
+            this.maxX = viewport.getMaxX();
+            this.maxY = viewport.getMaxY();
+        }
+    }
+
+    /**
+     * Get the value of precision
+     *
+     * @return the value of precision
+     */
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Set the value of precision
+     *
+     * @param precision new value of precision
+     */
+    public final void setPrecision(Precision precision) {
+        this.precision = precision;
+    }
+
+    /**
+     * Check whether a set is to be generated in extended precision. With
+     * the automatic precision it is, when the extent of the generators is
+     * over EXTENDED_RATIO times the size of the viewport, as after zooming
+     * deep into the gasket.
+     * @param a1 First generator.
+     * @param a2 Second generator.
+     * @param a3 Third generator.
+     * @return Whether to use extended precision.
+     */
+    public boolean isExtended(SoddyCircle a1, SoddyCircle a2,
+            SoddyCircle a3) {
+        if (precision != Precision.AUTO) return precision == Precision.EXTENDED;
+        if (viewport == null) return false;
+
+        double extent = 0;
+        for (SoddyCircle a : new SoddyCircle[] {a1, a2, a3}) {
+            extent = Math.max(extent, Math.max(Math.abs(a.x), Math.abs(a.y)));
+            if (a.k != 0) extent = Math.max(extent, Math.abs(1d/a.k));
+        }
+        double size = Math.max(maxX - minX, maxY - minY);
+        return extent > EXTENDED_RATIO * size;
+    }
+
+    /**
+     * Check whether the daughters of a circle are to be generated.
+     * @param l The level of the circle.
+     * @param k The curvature of the circle.
+     * @return Whether to descend.
+     */
+    public boolean descend(int l, double k) {
+        return l < maxLevel && this.refine(k);
+    }
+
+    /**
+     * Check whether the daughters of a circle are to be generated by its
+     * radius alone, whatever its level.
+     * @param k The curvature of the circle.
+     * @return Whether the circle is large enough to descend.
+     */
+    public boolean refine(double k) {
+        return Math.abs(k)*minRadius <= 1d;
+    }
+
+    /**
+     * Check whether the curvilinear triangle bounded by three mutually
+     * tangent circles that holds a given circle can reach the viewport.
+     * @param x x coordinate of the center of the circle in the triangle.
+     * @param y y coordinate of the center of the circle in the triangle.
+     * @param x1 x coordinate of the center of the first circle.
+     * @param y1 y coordinate of the center of the first circle.
+     * @param k1 Curvature of the first circle.
+     * @param x2 x coordinate of the center of the second circle.
+     * @param y2 y coordinate of the center of the second circle.
+     * @param k2 Curvature of the second circle.
+     * @param x3 x coordinate of the center of the third circle.
+     * @param y3 y coordinate of the center of the third circle.
+     * @param k3 Curvature of the third circle.
+     * @return Whether the triangle can be visible.
+     */
+    public boolean visible(double x, double y, double x1, double y1,
+            double k1, double x2, double y2, double k2, double x3, double y3,
+            double k3) {
+        if (viewport == null) return true;
+
+        /* The points of tangency - (k1z1 + k2z2)/(k1 + k2) and so on. */
+        double ax = (k1*x1 + k2*x2)/(k1 + k2), ay = (k1*y1 + k2*y2)/(k1 + k2);
+        double bx = (k2*x2 + k3*x3)/(k2 + k3), by = (k2*y2 + k3*y3)/(k2 + k3);
+        double cx = (k3*x3 + k1*x1)/(k3 + k1), cy = (k3*y3 + k1*y1)/(k3 + k1);
+
+        /* The circle through them, computed relative to the first one. */
+        bx -= ax; by -= ay;
+        cx -= ax; cy -= ay;
+        double d = 2*(bx*cy - by*cx);
+        double b2 = bx*bx + by*by, c2 = cx*cx + cy*cy;
+
+        /* Straight lines and near degenerate triangles are never skipped. */
+        if (!(Math.abs(d) > 1e-6*(b2 + c2))) return true;
+
+        double ux = (cy*b2 - by*c2)/d;
+        double uy = (bx*c2 - cx*b2)/d;
+        double r2 = ux*ux + uy*uy;
+        ux += ax;
+        uy += ay;
+
+        /* The triangle is outside of the circle - nothing to bound it by. */
+        if ((x - ux)*(x - ux) + (y - uy)*(y - uy) > r2) return true;
+
+        double dx = Math.max(Math.max(minX - ux, ux - maxX), 0);
+        double dy = Math.max(Math.max(minY - uy, uy - maxY), 0);
+        return dx*dx + dy*dy <= r2;
+    }
+
+    /**
+     * Get an upper bound of the number of circles in a set generated within
+     * these limits.
+     * @return The bound.
+     */
+    public long getMaxSize() {
+        return Math.min(ApollonianSet.size(maxLevel), maxCircles);
+    }
+}
@@ -4,9 +4,16 @@
 
 package org.ignisf.iag.descartes;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Apollonian set abstract data type.
@@ -14,16 +21,74 @@ import java.util.Iterator;
  */
 public class ApollonianSet {
     
+    /**
+     * Order of a lazy traversal of an Apollonian set.
+     */
+    public enum Order {
+        /**
+         * Every circle is followed by its descendants.
+         */
+        DEPTH_FIRST,
+        
+        /**
+         * The circles are reported level by level.
+         */
+        BREADTH_FIRST
+    }
+    
     /**
      * The set itself.
      */
-    ArrayList<SoddyCircle> set = new ArrayList<SoddyCircle>(3);
+    SoddyCircleStore set;
     
     /**
      * The maximum level of the set.
      */
     int n;
     
+    /**
+     * The limits the set was generated within.
+     */
+    ApollonianLimits limits;
+    
+    /**
+     * The initial capacity of a store whose final size is not known.
+     */
+    static final int INITIAL_CAPACITY = 1 << 16;
+    
+    /**
+     * The thread generating the set, whose interruption cancels the
+     * generation. Null once the set is generated.
+     */
+    private Thread builder;
+    
+    /**
+     * The spatial index of the set, null until asked for.
+     */
+    private SoddyCircleIndex index;
+    
+    /**
+     * The number of circles up to and including each level generated, so
+     * the set can be cut back to any of them.
+     */
+    private final int[] ends = new int[ApollonianLimits.MAX_LEVEL + 1];
+    
+    /**
+     * The deepest level generated, deeper than n once the set is cut back.
+     */
+    private int generated;
+    
+    /**
+     * The frontier of the deepest level generated, not pruned yet. Null
+     * when no further level can fit in the circle budget.
+     */
+    private int[] frontier;
+    
+    /**
+     * The number of quadruples in the frontier.
+     */
+    private int count;
+    
     /**
      * Create an apollonian set by three ancestors.
      * @param a1 First ancestor.
@@ -33,8 +98,49 @@ public class ApollonianSet {
      */
     public ApollonianSet(SoddyCircle a1, SoddyCircle a2, SoddyCircle a3,
             int n){
+        this(a1, a2, a3, n, null);
+    }
+    
+    /**
+     * Create an apollonian set by three ancestors, generating the levels in
+     * parallel. Each level is split into ranges of the frontier that are
+     * expanded by separate tasks, every one of them writing to its own
+     * region of the store, so no merging is needed.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third acnestor.
+     * @param n The maximum level
+     * @param pool The pool to generate in, e.g. ForkJoinPool.commonPool(),
+     * or null to generate on the calling thread.
+     */
+    public ApollonianSet(SoddyCircle a1, SoddyCircle a2, SoddyCircle a3,
+            int n, ForkJoinPool pool){
+        this(a1, a2, a3, new ApollonianLimits(n), pool);
+    }
+    
+    /**
+     * Create an apollonian set by three ancestors within the given limits.
+     * The set is generated level by level and a level that does not fit in
+     * the circle budget whole is left out, so the set ends with a complete
+     * level and the detail is uniform.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third acnestor.
+     * @param limits The limits of the generation.
+     * @param pool The pool to generate in, e.g. ForkJoinPool.commonPool(),
+     * or null to generate on the calling thread.
+     * @throws CancellationException When the calling thread is interrupted
+     * while generating.
+     */
+    public ApollonianSet(SoddyCircle a1, SoddyCircle a2, SoddyCircle a3,
+            ApollonianLimits limits, ForkJoinPool pool){
         
-        this.n = n;
+        this.builder = Thread.currentThread();
+        
+        this.n = limits.getMaxLevel();
+        this.limits = limits;
+        this.set = new SoddyCircleStore(ApollonianSet.capacity(limits));
+        if (limits.isExtended(a1, a2, a3)) set.extend();
         
         /* Adding the three ancestors to the set. */
         set.add(a1);
@@ -44,60 +150,453 @@ public class ApollonianSet {
         /* Setting up the initial descartes configuration */
         Collection<SoddyCircle> a45 = 
                 DescartesTheorem.complexDescartes(a1, a2, a3);
-        set.addAll(a45);
+        for (SoddyCircle c : a45) set.add(c);
+        ends[0] = set.size;
         
-        /* Fill in the set */
-        Iterator<SoddyCircle> i = a45.iterator();
+        /**
+         * The frontier of the first level - the two children, each with the
+         * three ancestors.
+         */
+        this.frontier = new int[] {3, 0, 1, 2, 4, 0, 1, 2};
+        this.count = 2;
         
-        while (i.hasNext())
-            this.set.addAll(this.getHeirs(i.next(), a1, a2, a3, n)); 
+        this.grow(pool);
+        builder = null;
     }
     
     /**
-     * A recursive method to fill the Apollonian set to the n-th level
-     * @param m Mother
-     * @param a1 First ancestor.
-     * @param a2 Second ancestor.
-     * @param a3 Third ancestor.
-     * @param n Maximum level.
+     * Generate the levels from the deepest one generated down to n, level
+     * by level, stopping before the first level that does not fit in the
+     * circle budget whole, so the detail is uniform. The frontier of the
+     * last level is kept as well, for the set to be deepened later.
+     * @param pool The pool to generate in or null.
+     * @throws CancellationException When the builder is interrupted, with
+     * the set complete up to the last level generated.
+     */
+    private void grow(ForkJoinPool pool){
+        int budget = limits.getMaxCircles();
+        set.size = ends[generated];
+        
+        /* Fill in the set level by level */
+        while (generated < n && frontier != null) {
+            count = this.prune(frontier, count);
+            if (count == 0 || 3L*count > budget - set.size) break;
+            
+            int c = count*3;
+            set.ensureCapacity(set.size + c);
+            int[] heirs = budget - set.size - c >= 3 ? new int[c*4] : null;
+            
+            if (pool == null || count <= Heirs.THRESHOLD){
+                this.getHeirs(frontier, 0, count, heirs, set.size);
+            } else {
+                pool.invoke(new Heirs(frontier, 0, count, heirs, set.size));
+            }
+            
+            if (builder.isInterrupted())
+                throw new CancellationException("Generation interrupted");
+            
+            set.size += c;
+            ends[++generated] = set.size;
+            frontier = heirs;
+            count = c;
+        }
+    }
+    
+    /**
+     * Change the maximum level of the set. The set is held in level order,
+     * so lowering the level only cuts it back and raising it back restores
+     * the circles cut. Past the deepest level generated, only the new
+     * levels are generated, from the frontier kept. The limits of the set
+     * are changed too.
+     *
+     * The set must not be read while its level is being changed.
+     * @param n The maximum level.
+     * @param pool The pool to generate in, e.g. ForkJoinPool.commonPool(),
+     * or null to generate on the calling thread.
+     * @throws CancellationException When the calling thread is interrupted
+     * while generating, with the set left at the last level generated.
      */
-    private Collection<SoddyCircle> getHeirs(SoddyCircle m,
-            SoddyCircle a1, SoddyCircle a2, SoddyCircle a3, int n){
+    public synchronized void setLevel(int n, ForkJoinPool pool){
+        if (n < 0) throw new IllegalArgumentException("Illegal level: " + n);
+        limits.setMaxLevel(n);
+        
+        this.n = n;
+        this.index = null;
+        set.size = ends[Math.min(n, generated)];
+        if (n <= generated) return;
+        
+        this.builder = Thread.currentThread();
+        try {
+            this.grow(pool);
+        } catch (CancellationException e) {
+            this.n = generated;
+            limits.setMaxLevel(generated);
+            throw e;
+        } finally {
+            builder = null;
+        }
+    }
+    
+    /**
+     * Get the number of circles in an Apollonian set of the n-th level -
+     * the three ancestors, their two children and 3^l daughters of each
+     * of the two children on every level l from 1 to n, i.e.
+     * 5 + 3(3^n - 1).
+     * @param n The maximum level.
+     * @return The number of circles.
+     */
+    public static long size(int n){
+        long c = 5;
+        long d = 6;
+        for (int l = 1; l <= n; l++){
+            c += d;
+            if (c > SoddyCircleStore.MAX_CAPACITY) return Long.MAX_VALUE;
+            d *= 3;
+        }
+        return c;
+    }
+    
+    /**
+     * Get the initial capacity of the store backing a set generated within
+     * the given limits. Sets limited only by level are sized exactly.
+     * @param limits The limits.
+     * @return The capacity.
+     * @throws IllegalArgumentException if the set can not be stored.
+     */
+    static int capacity(ApollonianLimits limits){
+        long c = ApollonianSet.size(limits.getMaxLevel());
+        boolean bounded = limits.getMinRadius() > 0
+                || limits.getMaxCircles() < SoddyCircleStore.MAX_CAPACITY;
+        
+        if (c > SoddyCircleStore.MAX_CAPACITY && !bounded)
+            throw new IllegalArgumentException("Level " + limits.getMaxLevel()
+                    + " is too deep");
+        
+        c = Math.min(c, limits.getMaxCircles());
+        if (limits.getMinRadius() > 0) c = Math.min(c, INITIAL_CAPACITY);
+        return (int) Math.max(c, 5);
+    }
+    
+    /**
+     * Drop the quadruples of a frontier whose mothers are not to be given
+     * daughters, either by the radius limit or because the curvilinear
+     * triangle of their ancestors misses the viewport. The level is left to
+     * grow(), so a pruned frontier stays valid at any level. The frontier
+     * is compacted in place.
+     * @param f The frontier.
+     * @param count The number of quadruples in the frontier.
+     * @return The number of quadruples left.
+     */
+    private int prune(int[] f, int count){
+        int left = 0;
+        for (int i = 0; i < count; i++){
+            int m = f[4*i], a1 = f[4*i+1], a2 = f[4*i+2], a3 = f[4*i+3];
+            double[] x = set.x, y = set.y, k = set.k;
+            if (limits.refine(k[m]) && limits.visible(x[m], y[m],
+                    x[a1], y[a1], k[a1], x[a2], y[a2], k[a2],
+                    x[a3], y[a3], k[a3])){
+                if (left != i) System.arraycopy(f, 4*i, f, 4*left, 4);
+                left++;
+            }
+        }
+        return left;
+    }
+    
+    /**
+     * Write the daughters of a range of a frontier to the set.
+     * 
+     * The frontier is a packed array of (mother, first ancestor, second
+     * ancestor, third ancestor) index quadruples. The daughters of the i-th
+     * quadruple are written to the set at base + 3i, so the set ends up in
+     * level order and every daughter is written exactly once.
+     * @param f The frontier.
+     * @param from The first quadruple of the range.
+     * @param to The quadruple after the last one of the range.
+     * @param heirs The frontier of the next level to fill in or null.
+     * @param base The index of the first daughter of the frontier.
+     */
+    private void getHeirs(int[] f, int from, int to, int[] heirs, int base){
         
         /**
-         * The heirs of the 4 ancestors up to the n-th level.
+         * Scratch space for the daughter computed by the kernel.
          */
-        ArrayList<SoddyCircle> heirs = new ArrayList<SoddyCircle>(3);
-        
-        if (n>=1){
-            /**
-             * The daughters.
-             */
-            SoddyCircle[] d = new SoddyCircle[3];
-            d[0] = DescartesTheorem.getDaughter(m, a1, a2, a3);
-            d[1] = DescartesTheorem.getDaughter(m, a3, a1, a2);
-            d[2] = DescartesTheorem.getDaughter(m, a2, a3, a1);
-
-            /* Adding the daughters to the set */
-            heirs.add(d[0]);
-            heirs.add(d[1]);
-            heirs.add(d[2]);
+        double[] d = new double[3];
 
-            /* Recuring if we are not at the maximum level */
-            if(m.l+1 < n){
-                heirs.addAll(this.getHeirs(d[0], m, a2, a3, n));
-                heirs.addAll(this.getHeirs(d[1], m, a1, a2, n));
-                heirs.addAll(this.getHeirs(d[2], m, a3, a1, n));
+        /**
+         * Scratch registers of the double-double kernel.
+         */
+        DoubleDouble[] dd = set.xl == null ? null : new DoubleDouble[] {
+            new DoubleDouble(), new DoubleDouble(), new DoubleDouble()};
+        
+        double[] x = set.x, y = set.y, k = set.k;
+        double[] xl = set.xl, yl = set.yl, kl = set.kl;
+        byte[] lv = set.l;
+        
+        for (int i = from; i < to; i++){
+            int m = f[4*i], a1 = f[4*i+1], a2 = f[4*i+2], a3 = f[4*i+3];
+            byte l = (byte) (lv[m] + 1);
+            int d0 = base + 3*i, d1 = d0 + 1, d2 = d0 + 2;
+            
+            /* The three daughters - reflections of a1, a3 and a2. */
+            if (xl != null){
+                DescartesTheorem.getDaughter(x, xl, y, yl, k, kl,
+                        m, a1, a2, a3, d0, dd);
+                DescartesTheorem.getDaughter(x, xl, y, yl, k, kl,
+                        m, a3, a1, a2, d1, dd);
+                DescartesTheorem.getDaughter(x, xl, y, yl, k, kl,
+                        m, a2, a3, a1, d2, dd);
+                lv[d0] = lv[d1] = lv[d2] = l;
+            } else {
+                DescartesTheorem.getDaughter(x[m], y[m], k[m],
+                        x[a1], y[a1], k[a1], x[a2], y[a2], k[a2],
+                        x[a3], y[a3], k[a3], d, 0);
+                x[d0] = d[0]; y[d0] = d[1]; k[d0] = d[2]; lv[d0] = l;
+                DescartesTheorem.getDaughter(x[m], y[m], k[m],
+                        x[a3], y[a3], k[a3], x[a1], y[a1], k[a1],
+                        x[a2], y[a2], k[a2], d, 0);
+                x[d1] = d[0]; y[d1] = d[1]; k[d1] = d[2]; lv[d1] = l;
+                DescartesTheorem.getDaughter(x[m], y[m], k[m],
+                        x[a2], y[a2], k[a2], x[a3], y[a3], k[a3],
+                        x[a1], y[a1], k[a1], d, 0);
+                x[d2] = d[0]; y[d2] = d[1]; k[d2] = d[2]; lv[d2] = l;
+            }
+            
+            if (heirs != null){
+                int h = 12*i;
+                heirs[h++] = d0; heirs[h++] = m; heirs[h++] = a2; heirs[h++] = a3;
+                heirs[h++] = d1; heirs[h++] = m; heirs[h++] = a1; heirs[h++] = a2;
+                heirs[h++] = d2; heirs[h++] = m; heirs[h++] = a3; heirs[h] = a1;
             }
         }
-        return heirs;
+    }
+    
+    /**
+     * Fork/join task expanding a range of a frontier.
+     */
+    private class Heirs extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        /**
+         * The number of quadruples below which a range is not split.
+         */
+        static final int THRESHOLD = 4096;
+        
+        int[] f, heirs;
+        int from, to, base;
+        
+        Heirs(int[] f, int from, int to, int[] heirs, int base){
+            this.f = f;
+            this.from = from;
+            this.to = to;
+            this.heirs = heirs;
+            this.base = base;
+        }
+        
+        @Override
+        protected void compute(){
+            /* The workers are not interrupted themselves. */
+            if (builder.isInterrupted()) return;
+            if (to - from <= THRESHOLD){
+                getHeirs(f, from, to, heirs, base);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Heirs(f, from, mid, heirs, base),
+                        new Heirs(f, mid, to, heirs, base));
+            }
+        }
+    }
+    
+    /**
+     * Get a lazy traversal of the Apollonian set of three ancestors. The
+     * circles are generated as they are consumed and the memory needed is
+     * bounded by the maximum level.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third ancestor.
+     * @param n The maximum level.
+     * @param order The traversal order.
+     * @return The spliterator.
+     */
+    public static Spliterator<SoddyCircle> spliterator(SoddyCircle a1,
+            SoddyCircle a2, SoddyCircle a3, int n, Order order){
+        return new ApollonianSpliterator(a1, a2, a3, n, order);
+    }
+    
+    /**
+     * Get a lazy traversal of the Apollonian set of three ancestors within
+     * the given limits. The circle budget of the limits is not applied.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third ancestor.
+     * @param limits The limits of the generation.
+     * @param order The traversal order.
+     * @return The spliterator.
+     */
+    public static Spliterator<SoddyCircle> spliterator(SoddyCircle a1,
+            SoddyCircle a2, SoddyCircle a3, ApollonianLimits limits,
+            Order order){
+        return new ApollonianSpliterator(a1, a2, a3, limits, order);
+    }
+    
+    /**
+     * Get a lazy iterator over the Apollonian set of three ancestors.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third ancestor.
+     * @param n The maximum level.
+     * @param order The traversal order.
+     * @return The iterator.
+     */
+    public static Iterator<SoddyCircle> iterator(SoddyCircle a1,
+            SoddyCircle a2, SoddyCircle a3, int n, Order order){
+        return Spliterators.iterator(
+                ApollonianSet.spliterator(a1, a2, a3, n, order));
+    }
+    
+    /**
+     * Get a lazy sequential stream of the Apollonian set of three ancestors.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third ancestor.
+     * @param n The maximum level.
+     * @param order The traversal order.
+     * @return The stream.
+     */
+    public static Stream<SoddyCircle> stream(SoddyCircle a1, SoddyCircle a2,
+            SoddyCircle a3, int n, Order order){
+        return StreamSupport.stream(
+                ApollonianSet.spliterator(a1, a2, a3, n, order), false);
+    }
+    
+    /**
+     * Get a lazy parallel stream of the Apollonian set of three ancestors.
+     * The pending subtrees are handed out to the workers, so the circles do
+     * not arrive in the traversal order.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third ancestor.
+     * @param n The maximum level.
+     * @param order The traversal order.
+     * @return The stream.
+     */
+    public static Stream<SoddyCircle> parallelStream(SoddyCircle a1,
+            SoddyCircle a2, SoddyCircle a3, int n, Order order){
+        return StreamSupport.stream(
+                ApollonianSet.spliterator(a1, a2, a3, n, order), true);
+    }
+    
+    /**
+     * Get a lazy sequential stream of the Apollonian set of three ancestors
+     * within the given limits. The circle budget of the limits is not
+     * applied.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third ancestor.
+     * @param limits The limits of the generation.
+     * @param order The traversal order.
+     * @return The stream.
+     */
+    public static Stream<SoddyCircle> stream(SoddyCircle a1, SoddyCircle a2,
+            SoddyCircle a3, ApollonianLimits limits, Order order){
+        return StreamSupport.stream(
+                ApollonianSet.spliterator(a1, a2, a3, limits, order), false);
+    }
+    
+    /**
+     * Get a lazy parallel stream of the Apollonian set of three ancestors
+     * within the given limits. The circle budget of the limits is not
+     * applied.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third ancestor.
+     * @param limits The limits of the generation.
+     * @param order The traversal order.
+     * @return The stream.
+     */
+    public static Stream<SoddyCircle> parallelStream(SoddyCircle a1,
+            SoddyCircle a2, SoddyCircle a3, ApollonianLimits limits,
+            Order order){
+        return StreamSupport.stream(
+                ApollonianSet.spliterator(a1, a2, a3, limits, order), true);
+    }
+    
+    /**
+     * Locate a point in the Apollonian set of three ancestors - find the
+     * innermost circle containing it and its address in the Apollonian
+     * tree by descending only into the gaps holding the point. Takes time
+     * proportional to the level of the circle and generates nothing else.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third ancestor.
+     * @param x x coordinate of the point.
+     * @param y y coordinate of the point.
+     * @param n The maximum level.
+     * @return The location, null if the point is outside the set.
+     */
+    public static GasketLocation locate(SoddyCircle a1, SoddyCircle a2,
+            SoddyCircle a3, double x, double y, int n){
+        return GasketLocation.locate(a1, a2, a3, x, y, n);
     }
     
     /**
      * Get the complete set.
      * @return The set.
      */
-    public Collection<SoddyCircle> getSet(){
+    public List<SoddyCircle> getSet(){
+        return set.asList();
+    }
+    
+    /**
+     * Get the limits the set was generated within.
+     * @return The limits.
+     */
+    public ApollonianLimits getLimits(){
+        return limits;
+    }
+    
+    /**
+     * Get the store backing the set.
+     * @return The store.
+     */
+    public SoddyCircleStore getStore(){
         return set;
     }
+    
+    /**
+     * Get the spatial index of the set. The index is built on the first
+     * call after the set is generated or its level changed.
+     * @param pool The pool to build in, e.g. ForkJoinPool.commonPool(), or
+     * null to build on the calling thread.
+     * @return The index.
+     */
+    public synchronized SoddyCircleIndex getIndex(ForkJoinPool pool){
+        if (index == null) index = new SoddyCircleIndex(set, pool);
+        return index;
+    }
+    
+    /**
+     * Get the number of circles in the set.
+     * @return The number of circles.
+     */
+    public int size(){
+        return set.size();
+    }
+    
+    /**
+     * Get the maximum level of the set.
+     * @return The level.
+     */
+    public int getLevel(){
+        return n;
+    }
+    
+    /**
+     * Get an estimate of the memory the set takes, with the circles cut
+     * back and the frontier kept.
+     * @return The memory in bytes.
+     */
+    public long getBytes(){
+        return set.getBytes() + (frontier == null ? 0 : 4L*frontier.length);
+    }
 }
@@ -0,0 +1,455 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.descartes;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Lazy traversal of an Apollonian set. The circles are generated on the fly
+ * and only the pending subtrees are kept, so the memory needed is bounded
+ * by the depth of the set rather than by its size.
+ *
+ * A pending subtree is kept as a frame of twelve doubles - the center and
+ * curvature of its root followed by those of the three circles the root is
+ * tangent to, in the order getHeirs expects them - and the level of the
+ * root.
+ *
+ * Breadth first order is produced by iterative deepening: the pending
+ * subtrees are walked once per level and only the circles of that level
+ * are reported. This costs about half again as much generation as the
+ * depth first order while keeping the memory bounded.
+ * @author Petko Bordjukov
+ */
+public class ApollonianSpliterator implements Spliterator<SoddyCircle> {
+
+    /**
+     * The size of a frame.
+     */
+    static final int FRAME = 12;
+
+    /**
+     * The traversal order.
+     */
+    final ApollonianSet.Order order;
+
+    /**
+     * The limits of the generation.
+     */
+    final ApollonianLimits limits;
+
+    /**
+     * The maximum level.
+     */
+    final int n;
+
+    /**
+     * Circles to report before the subtrees, as x, y, k triples.
+     */
+    double[] preamble;
+
+    /**
+     * The levels of the circles in the preamble.
+     */
+    int[] preambleLevels;
+
+    /**
+     * The number of circles in the preamble and the index of the next one.
+     */
+    int preambleSize, preambleNext;
+
+    /**
+     * The roots of the subtrees walked on every pass of the breadth first
+     * order. Their circles have already been reported or are in the
+     * preamble.
+     */
+    double[] roots;
+
+    /**
+     * The levels of the roots.
+     */
+    int[] rootLevels;
+
+    /**
+     * The number of roots.
+     */
+    int rootCount;
+
+    /**
+     * The level reported by the current breadth first pass.
+     */
+    int pass;
+
+    /**
+     * Whether the current breadth first pass has started.
+     */
+    boolean passStarted;
+
+    /**
+     * Whether a circle reported by the current breadth first pass is to be
+     * given daughters, i.e. whether another pass is needed.
+     */
+    boolean passDeeper;
+
+    /**
+     * The pending frames.
+     */
+    double[] stack = new double[FRAME*16];
+
+    /**
+     * The levels of the pending frames.
+     */
+    int[] stackLevels = new int[16];
+
+    /**
+     * The number of pending frames.
+     */
+    int stackSize;
+
+    /**
+     * Create a traversal of the Apollonian set of three ancestors.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third ancestor.
+     * @param n The maximum level.
+     * @param order The traversal order.
+     */
+    public ApollonianSpliterator(SoddyCircle a1, SoddyCircle a2,
+            SoddyCircle a3, int n, ApollonianSet.Order order){
+        this(a1, a2, a3, new ApollonianLimits(n), order);
+    }
+
+    /**
+     * Create a traversal of the Apollonian set of three ancestors within the
+     * given limits. The circle budget of the limits is not applied.
+     * @param a1 First ancestor.
+     * @param a2 Second ancestor.
+     * @param a3 Third ancestor.
+     * @param limits The limits of the generation.
+     * @param order The traversal order.
+     */
+    public ApollonianSpliterator(SoddyCircle a1, SoddyCircle a2,
+            SoddyCircle a3, ApollonianLimits limits,
+            ApollonianSet.Order order){
+        this.order = order;
+        this.limits = limits;
+        this.n = limits.getMaxLevel();
+
+        /**
+         * The two children of the ancestors.
+         */
+        double[] a45 = new double[6];
+        double[] k45 = new double[2];
+        DescartesTheorem.descartes(a1.k, a2.k, a3.k, k45, 0);
+        DescartesTheorem.complexDescartes(a1.x, a1.y, a1.k, a2.x, a2.y, a2.k,
+                a3.x, a3.y, a3.k, k45[0], k45[1], a45, 0);
+
+        this.preamble = new double[3*8];
+        this.preambleLevels = new int[8];
+        this.addPreamble(a1.x, a1.y, a1.k, a1.l);
+        this.addPreamble(a2.x, a2.y, a2.k, a2.l);
+        this.addPreamble(a3.x, a3.y, a3.k, a3.l);
+
+        /**
+         * The frames of the two children.
+         */
+        double[] frames = new double[2*FRAME];
+        for (int i = 0; i < 2; i++){
+            int f = i*FRAME;
+            frames[f] = a45[3*i];
+            frames[f+1] = a45[3*i+1];
+            frames[f+2] = a45[3*i+2];
+            frames[f+3] = a1.x; frames[f+4] = a1.y; frames[f+5] = a1.k;
+            frames[f+6] = a2.x; frames[f+7] = a2.y; frames[f+8] = a2.k;
+            frames[f+9] = a3.x; frames[f+10] = a3.y; frames[f+11] = a3.k;
+        }
+
+        if (order == ApollonianSet.Order.DEPTH_FIRST){
+            /* The children are pushed in reverse to be reported in order. */
+            this.push(frames, FRAME, 0);
+            this.push(frames, 0, 0);
+        } else {
+            this.addPreamble(a45[0], a45[1], a45[2], 0);
+            this.addPreamble(a45[3], a45[4], a45[5], 0);
+            for (int i = 0; i < 2; i++)
+                if (this.descend(frames, i*FRAME, 0))
+                    this.addRoot(frames, i*FRAME, 0);
+            this.pass = 1;
+        }
+    }
+
+    /**
+     * Create an empty traversal to split work off to.
+     * @param order The traversal order.
+     * @param limits The limits of the generation.
+     */
+    private ApollonianSpliterator(ApollonianSet.Order order,
+            ApollonianLimits limits){
+        this.order = order;
+        this.limits = limits;
+        this.n = limits.getMaxLevel();
+        this.preamble = new double[0];
+        this.preambleLevels = new int[0];
+    }
+
+    /**
+     * Append a circle to the preamble.
+     */
+    private void addPreamble(double x, double y, double k, int l){
+        if (preambleSize == preambleLevels.length){
+            int c = Math.max(8, preambleSize*2);
+            preamble = Arrays.copyOf(preamble, 3*c);
+            preambleLevels = Arrays.copyOf(preambleLevels, c);
+        }
+        preamble[3*preambleSize] = x;
+        preamble[3*preambleSize+1] = y;
+        preamble[3*preambleSize+2] = k;
+        preambleLevels[preambleSize++] = l;
+    }
+
+    /**
+     * Check whether the root of a frame is to be given daughters.
+     * @param s The array holding the frame.
+     * @param f The offset of the frame.
+     * @param l The level of the root of the frame.
+     * @return Whether to descend.
+     */
+    private boolean descend(double[] s, int f, int l){
+        return limits.descend(l, s[f+2]) && limits.visible(s[f], s[f+1],
+                s[f+3], s[f+4], s[f+5], s[f+6], s[f+7], s[f+8],
+                s[f+9], s[f+10], s[f+11]);
+    }
+
+    /**
+     * Push a frame on the stack.
+     * @param src The array holding the frame.
+     * @param off The offset of the frame.
+     * @param l The level of the root of the frame.
+     */
+    private void push(double[] src, int off, int l){
+        if (stackSize == stackLevels.length){
+            stack = Arrays.copyOf(stack, 2*stack.length);
+            stackLevels = Arrays.copyOf(stackLevels, 2*stackLevels.length);
+        }
+        System.arraycopy(src, off, stack, stackSize*FRAME, FRAME);
+        stackLevels[stackSize++] = l;
+    }
+
+    /**
+     * Pop the top frame and push the frames of its three daughters in its
+     * place, in reverse so that they are reported in order.
+     */
+    private void expandTop(){
+        int f = (--stackSize)*FRAME;
+        int l = stackLevels[stackSize] + 1;
+
+        if (stackSize + 3 > stackLevels.length){
+            stack = Arrays.copyOf(stack, 2*stack.length);
+            stackLevels = Arrays.copyOf(stackLevels, 2*stackLevels.length);
+        }
+
+        /*
+         * The mother and her ancestors are read out first, as her frame is
+         * reused by the last daughter.
+         */
+        int d = f + FRAME;
+        double[] s = stack;
+        double mx = s[f], my = s[f+1], mk = s[f+2];
+        double x1 = s[f+3], y1 = s[f+4], k1 = s[f+5];
+        double x2 = s[f+6], y2 = s[f+7], k2 = s[f+8];
+        double x3 = s[f+9], y3 = s[f+10], k3 = s[f+11];
+
+        /* The third daughter, tangent to m, a3 and a1 - pushed first. */
+        DescartesTheorem.getDaughter(mx, my, mk, x2, y2, k2, x3, y3, k3,
+                x1, y1, k1, s, f);
+        s[f+3] = mx; s[f+4] = my; s[f+5] = mk;
+        s[f+6] = x3; s[f+7] = y3; s[f+8] = k3;
+        s[f+9] = x1; s[f+10] = y1; s[f+11] = k1;
+        stackLevels[stackSize++] = l;
+
+        /* The second daughter, tangent to m, a1 and a2. */
+        f = d;
+        DescartesTheorem.getDaughter(mx, my, mk, x3, y3, k3, x1, y1, k1,
+                x2, y2, k2, s, f);
+        s[f+3] = mx; s[f+4] = my; s[f+5] = mk;
+        s[f+6] = x1; s[f+7] = y1; s[f+8] = k1;
+        s[f+9] = x2; s[f+10] = y2; s[f+11] = k2;
+        stackLevels[stackSize++] = l;
+
+        /* The first daughter, tangent to m, a2 and a3. */
+        f = d + FRAME;
+        DescartesTheorem.getDaughter(mx, my, mk, x1, y1, k1, x2, y2, k2,
+                x3, y3, k3, s, f);
+        s[f+3] = mx; s[f+4] = my; s[f+5] = mk;
+        s[f+6] = x2; s[f+7] = y2; s[f+8] = k2;
+        s[f+9] = x3; s[f+10] = y3; s[f+11] = k3;
+        stackLevels[stackSize++] = l;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super SoddyCircle> action){
+        if (preambleNext < preambleSize){
+            int i = preambleNext++;
+            action.accept(new SoddyCircle(preamble[3*i], preamble[3*i+1],
+                    preamble[3*i+2], preambleLevels[i]));
+            return true;
+        }
+
+        if (order == ApollonianSet.Order.DEPTH_FIRST){
+            if (stackSize == 0) return false;
+
+            int f = (stackSize - 1)*FRAME;
+            int l = stackLevels[stackSize - 1];
+            SoddyCircle c = new SoddyCircle(stack[f], stack[f+1], stack[f+2], l);
+
+            if (this.descend(stack, f, l)) this.expandTop();
+            else stackSize--;
+
+            action.accept(c);
+            return true;
+        }
+
+        while (pass <= n){
+            if (!passStarted){
+                for (int i = rootCount - 1; i >= 0; i--)
+                    this.push(roots, i*FRAME, rootLevels[i]);
+                passStarted = true;
+                passDeeper = false;
+            }
+
+            while (stackSize > 0){
+                int f = (stackSize - 1)*FRAME;
+                int l = stackLevels[stackSize - 1];
+
+                if (l < pass){
+                    if (this.descend(stack, f, l)) this.expandTop();
+                    else stackSize--;
+                } else {
+                    stackSize--;
+                    if (this.descend(stack, f, l)) passDeeper = true;
+                    action.accept(new SoddyCircle(stack[f], stack[f+1],
+                            stack[f+2], l));
+                    return true;
+                }
+            }
+
+            pass = passDeeper ? pass + 1 : n + 1;
+            passStarted = false;
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<SoddyCircle> trySplit(){
+        return order == ApollonianSet.Order.DEPTH_FIRST
+                ? this.splitDepthFirst() : this.splitBreadthFirst();
+    }
+
+    /**
+     * Split off the bottom half of the stack - the largest pending subtrees.
+     * A lone frame is replaced by its daughters first, its own circle being
+     * moved to the preamble, which keeps the depth first order.
+     * @return The split off part or null.
+     */
+    private Spliterator<SoddyCircle> splitDepthFirst(){
+        while (stackSize == 1 && this.descend(stack, 0, stackLevels[0])){
+            this.addPreamble(stack[0], stack[1], stack[2], stackLevels[0]);
+            this.expandTop();
+        }
+        if (stackSize < 2) return null;
+
+        int half = stackSize/2;
+        ApollonianSpliterator s = new ApollonianSpliterator(order, limits);
+        for (int i = 0; i < half; i++)
+            s.push(stack, i*FRAME, stackLevels[i]);
+
+        System.arraycopy(stack, half*FRAME, stack, 0, (stackSize-half)*FRAME);
+        System.arraycopy(stackLevels, half, stackLevels, 0, stackSize-half);
+        stackSize -= half;
+        return s;
+    }
+
+    /**
+     * Split off half of the roots. This is only possible between passes;
+     * a lone root is replaced by its daughters first, which are moved to the
+     * preamble and reported before the next pass.
+     * @return The split off part or null.
+     */
+    private Spliterator<SoddyCircle> splitBreadthFirst(){
+        if (passStarted) return null;
+
+        while (rootCount == 1 && pass <= n && pass == rootLevels[0] + 1){
+            stackSize = 0;
+            this.push(roots, 0, rootLevels[0]);
+            this.expandTop();
+
+            rootCount = 0;
+            for (int i = stackSize - 1; i >= 0; i--){
+                int f = i*FRAME;
+                this.addPreamble(stack[f], stack[f+1], stack[f+2],
+                        stackLevels[i]);
+                if (this.descend(stack, f, stackLevels[i]))
+                    this.addRoot(stack, f, stackLevels[i]);
+            }
+            stackSize = 0;
+            pass++;
+        }
+        if (rootCount < 2 || pass > n) return null;
+
+        int half = rootCount/2;
+        ApollonianSpliterator s = new ApollonianSpliterator(order, limits);
+        s.pass = pass;
+        for (int i = rootCount - half; i < rootCount; i++)
+            s.addRoot(roots, i*FRAME, rootLevels[i]);
+        rootCount -= half;
+        return s;
+    }
+
+    /**
+     * Append a frame to the roots.
+     */
+    private void addRoot(double[] src, int off, int l){
+        if (roots == null){
+            roots = new double[4*FRAME];
+            rootLevels = new int[4];
+        } else if (rootCount == rootLevels.length){
+            roots = Arrays.copyOf(roots, 2*roots.length);
+            rootLevels = Arrays.copyOf(rootLevels, 2*rootLevels.length);
+        }
+        System.arraycopy(src, off, roots, rootCount*FRAME, FRAME);
+        rootLevels[rootCount++] = l;
+    }
+
+    /**
+     * Get the number of circles in a complete subtree.
+     * @param l The level of the root of the subtree.
+     * @return The number of circles, the root included.
+     */
+    private double subtree(int l){
+        return (Math.pow(3, n - l + 1) - 1)/2;
+    }
+
+    @Override
+    public long estimateSize(){
+        double s = preambleSize - preambleNext;
+
+        if (order == ApollonianSet.Order.DEPTH_FIRST){
+            for (int i = 0; i < stackSize; i++)
+                s += this.subtree(stackLevels[i]);
+        } else if (pass <= n){
+            /* The levels still to be reported by the roots. */
+            for (int i = 0; i < rootCount; i++)
+                s += (Math.pow(3, n - rootLevels[i] + 1)
+                        - Math.pow(3, pass - rootLevels[i]))/2;
+        }
+        return s >= Long.MAX_VALUE ? Long.MAX_VALUE : (long) s;
+    }
+
+    @Override
+    public int characteristics(){
+        return NONNULL | IMMUTABLE;
+    }
+}
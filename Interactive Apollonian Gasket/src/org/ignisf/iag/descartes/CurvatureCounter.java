@@ -0,0 +1,323 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.descartes;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Counts the circles of an integral Apollonian packing up to a curvature -
+ * N(X), the number of circles of curvature at most X - with a histogram of
+ * the curvatures and their counts by residue class.
+ *
+ * The curvatures are enumerated by IntegralCurvatures and tallied as they
+ * go, so nothing is stored and X can reach far beyond what a materialised
+ * set could hold. The subtrees are counted in parallel: the circles of
+ * small curvature, whose subtrees are large, are expanded by fork/join
+ * tasks, and the subtrees below them are enumerated sequentially, each
+ * worker thread tallying into a tally of its own.
+ * @author Petko Bordjukov
+ */
+public class CurvatureCounter {
+
+    /**
+     * The subtree of a circle of curvature over X / 2^SPLIT_SHIFT is
+     * enumerated sequentially - some 2^16 circles on average.
+     */
+    static final int SPLIT_SHIFT = 12;
+
+    /**
+     * The largest number of bins of a histogram.
+     */
+    public static final int MAX_BINS = 1 << 24;
+
+    /**
+     * The counts of a packing up to a curvature.
+     */
+    public static final class Counts {
+
+        private final long maxCurvature;
+        private final long count;
+        private final long binWidth;
+        private final long[] histogram;
+        private final long[] residues;
+        private final long time;
+
+        Counts(long maxCurvature, long count, long binWidth, long[] histogram,
+                long[] residues, long time){
+            this.maxCurvature = maxCurvature;
+            this.count = count;
+            this.binWidth = binWidth;
+            this.histogram = histogram;
+            this.residues = residues;
+            this.time = time;
+        }
+
+        /**
+         * Get the maximum curvature counted - X.
+         * @return The maximum curvature.
+         */
+        public long getMaxCurvature() {
+            return maxCurvature;
+        }
+
+        /**
+         * Get the number of circles of curvature at most X - N(X).
+         * @return The number of circles.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the width of the bins of the histogram.
+         * @return The width, 0 for no histogram.
+         */
+        public long getBinWidth() {
+            return binWidth;
+        }
+
+        /**
+         * Get the histogram of the curvatures. Bin i counts the curvatures
+         * from i*width to (i+1)*width - 1, and bin 0 also the negative
+         * curvature of the bounding circle.
+         * @return The histogram, null if none was asked for.
+         */
+        public long[] getHistogram() {
+            return histogram == null ? null : histogram.clone();
+        }
+
+        /**
+         * Get the counts by residue class. Element r counts the curvatures
+         * congruent to r modulo the modulus.
+         * @return The counts, null if none were asked for.
+         */
+        public long[] getResidues() {
+            return residues == null ? null : residues.clone();
+        }
+
+        /**
+         * Get the time spent counting.
+         * @return The time in nanoseconds.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        @Override
+        public String toString() {
+            return "N(" + maxCurvature + ") = " + count + " in "
+                    + time / 1000000 + " ms";
+        }
+    }
+
+    /**
+     * The packing.
+     */
+    protected final IntegralCurvatures packing;
+
+    /**
+     * The maximum curvature counted.
+     */
+    protected final long maxCurvature;
+
+    /**
+     * The width of the bins of the histogram, 0 for none.
+     */
+    protected long binWidth;
+
+    /**
+     * The modulus of the residue classes, 0 for none.
+     */
+    protected int modulus;
+
+    /**
+     * Create a counter of a packing by a Descartes quadruple.
+     * @param k1 Curvature of the first generator.
+     * @param k2 Curvature of the second generator.
+     * @param k3 Curvature of the third generator.
+     * @param k4 Curvature of a child of the generators.
+     * @param maxCurvature The maximum curvature counted - X.
+     * @throws IllegalArgumentException When the curvatures are not a
+     * Descartes quadruple or the packing is not bounded - N(X) is infinite
+     * for a packing with a straight line.
+     * @see IntegralCurvatures
+     */
+    public CurvatureCounter(long k1, long k2, long k3, long k4,
+            long maxCurvature){
+        this.packing = new IntegralCurvatures(k1, k2, k3, k4);
+        if (!packing.isBounded())
+            throw new IllegalArgumentException("Not a bounded packing: "
+                    + k1 + ", " + k2 + ", " + k3 + ", " + k4);
+        this.packing.setMaxCurvature(maxCurvature);
+        this.maxCurvature = maxCurvature;
+    }
+
+    /**
+     * Get the value of binWidth
+     *
+     * @return the value of binWidth
+     */
+    public long getBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * Set the value of binWidth
+     *
+     * @param binWidth new value of binWidth, 0 for no histogram
+     */
+    public void setBinWidth(long binWidth) {
+        if (binWidth < 0 || binWidth > 0
+                && Math.max(maxCurvature, 0) / binWidth >= MAX_BINS)
+            throw new IllegalArgumentException("Illegal bin width: "
+                    + binWidth);
+        this.binWidth = binWidth;
+    }
+
+    /**
+     * Get the value of modulus
+     *
+     * @return the value of modulus
+     */
+    public int getModulus() {
+        return modulus;
+    }
+
+    /**
+     * Set the value of modulus
+     *
+     * @param modulus new value of modulus, 0 for no residue classes
+     */
+    public void setModulus(int modulus) {
+        if (modulus < 0)
+            throw new IllegalArgumentException("Illegal modulus: " + modulus);
+        this.modulus = modulus;
+    }
+
+    /**
+     * Count the circles.
+     * @param pool The pool to count in, e.g. ForkJoinPool.commonPool(), or
+     * null to count on the calling thread.
+     * @return The counts.
+     */
+    public Counts count(ForkJoinPool pool){
+        long start = System.nanoTime();
+        final List<Tally> tallies = new ArrayList<Tally>();
+        ThreadLocal<Tally> local = new ThreadLocal<Tally>() {
+            @Override
+            protected Tally initialValue() {
+                Tally t = new Tally();
+                synchronized (tallies) {
+                    tallies.add(t);
+                }
+                return t;
+            }
+        };
+
+        long[] root = packing.getRoot();
+        Tally t = local.get();
+        for (long k : root)
+            if (k <= maxCurvature) t.visit(k, 0);
+
+        for (int i = 3; i < 5; i++) {
+            if (root[i] > maxCurvature) continue;
+            if (pool == null) {
+                packing.forEach(root[i], root[0], root[1], root[2], 0, t);
+            } else {
+                pool.invoke(new Subtree(root[i], root[0], root[1], root[2],
+                        local));
+            }
+        }
+
+        /* Merging the tallies of all threads. */
+        Tally sum = new Tally();
+        synchronized (tallies) {
+            for (Tally s : tallies) sum.add(s);
+        }
+        return new Counts(maxCurvature, sum.count, binWidth, sum.histogram,
+                sum.residues, System.nanoTime() - start);
+    }
+
+    /**
+     * The counts of a thread.
+     */
+    private class Tally implements IntegralCurvatures.Visitor {
+
+        long count;
+        final long[] histogram = binWidth > 0
+                ? new long[(int) (Math.max(maxCurvature, 0) / binWidth) + 1]
+                : null;
+        final long[] residues = modulus > 0 ? new long[modulus] : null;
+
+        public void visit(long k, int level) {
+            count++;
+            if (histogram != null)
+                histogram[k > 0 ? (int) (k / binWidth) : 0]++;
+            if (residues != null)
+                residues[(int) ((k % modulus + modulus) % modulus)]++;
+        }
+
+        public void visit(BigInteger k, int level) {
+            /* Curvatures over a long are over the maximum too. */
+            throw new IllegalStateException("Curvature overflow: " + k);
+        }
+
+        /**
+         * Add the counts of another tally.
+         * @param t The tally.
+         */
+        void add(Tally t) {
+            count += t.count;
+            for (int i = 0; histogram != null && i < histogram.length; i++)
+                histogram[i] += t.histogram[i];
+            for (int i = 0; residues != null && i < residues.length; i++)
+                residues[i] += t.residues[i];
+        }
+    }
+
+    /**
+     * Fork/join task counting the descendants of a circle in a gap.
+     */
+    private class Subtree extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final long m, a1, a2, a3;
+        final ThreadLocal<Tally> local;
+
+        Subtree(long m, long a1, long a2, long a3, ThreadLocal<Tally> local){
+            this.m = m;
+            this.a1 = a1;
+            this.a2 = a2;
+            this.a3 = a3;
+            this.local = local;
+        }
+
+        @Override
+        protected void compute() {
+            Tally t = local.get();
+            if (m > maxCurvature >> SPLIT_SHIFT) {
+                packing.forEach(m, a1, a2, a3, 0, t);
+                return;
+            }
+
+            /* The three daughters - reflections of a1, a3 and a2. */
+            List<Subtree> forks = new ArrayList<Subtree>(3);
+            long[][] gaps = {{a1, a2, a3}, {a3, a1, a2}, {a2, a3, a1}};
+            for (long[] g : gaps) {
+                long d = DescartesTheorem.getDaughterCurvature(m, g[0], g[1],
+                        g[2]);
+                if (d > maxCurvature) continue;
+                t.visit(d, 0);
+                forks.add(new Subtree(d, m, g[1], g[2], local));
+            }
+            invokeAll(forks);
+        }
+    }
+}
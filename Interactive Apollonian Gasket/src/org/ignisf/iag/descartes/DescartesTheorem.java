@@ -4,9 +4,9 @@
 
 package org.ignisf.iag.descartes;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
-import org.apache.commons.math.complex.Complex;
 
 /**
  * Descartes theorem helper class.
@@ -14,9 +14,39 @@ import org.apache.commons.math.complex.Complex;
  * Bo Söderberg, Apollonian Tiling, the Lorentz Group and Regular Trees
  * (http://citeseerx.ist.psu.edu/viewdoc/summary?doi=10.1.1.33.1756)
  * http://en.wikibooks.org/wiki/Fractals/Apollonian_fractals
+ *
+ * The primitive variants of the methods below do not allocate - they write
+ * their results into the caller supplied array starting at the given
+ * offset. The SoddyCircle variants are thin wrappers over them.
  * @author Petko Bordjukov
  */
 public class DescartesTheorem {
+    /**
+     * Get the curvatures of the two children of three mutually tangent circles.
+     * http://en.wikipedia.org/wiki/Descartes'_theorem#Descartes.27_theorem
+     * @param k1 Curvature of the first ancestor.
+     * @param k2 Curvature of the second ancestor.
+     * @param k3 Curvature of the third ancestor.
+     * @param out Output array - receives k4 and k5.
+     * @param off Offset in the output array.
+     */
+    public static void descartes(double k1, double k2, double k3,
+            double[] out, int off){
+
+        /**
+         * The first part of the equation.
+         */
+        double p = k1 + k2 + k3;
+
+        /**
+         * The second part of the eqation.
+         */
+        double q = Math.sqrt(k1*k2 + k2*k3 + k3*k1)*2d;
+
+        out[off] = p+q;
+        out[off+1] = p-q;
+    }
+
     /**
      * Get the curvatures of the two children of three mutually tangent circles.
      * http://en.wikipedia.org/wiki/Descartes'_theorem#Descartes.27_theorem
@@ -27,18 +57,81 @@ public class DescartesTheorem {
      */
     public static double[] descartes(SoddyCircle a1, SoddyCircle a2,
             SoddyCircle a3){
+        double[] curvatures = new double[2];
+        DescartesTheorem.descartes(a1.k, a2.k, a3.k, curvatures, 0);
+        return curvatures;
+    }
+
+    /**
+     * Supplement three kissing circles to a Descartes' configuration with their
+     * two children.
+     * http://en.wikipedia.org/wiki/Descartes'_theorem#Complex_Descartes_theorem
+     * @param x1 x coordinate of the center of the first ancestor.
+     * @param y1 y coordinate of the center of the first ancestor.
+     * @param k1 Curvature of the first ancestor.
+     * @param x2 x coordinate of the center of the second ancestor.
+     * @param y2 y coordinate of the center of the second ancestor.
+     * @param k2 Curvature of the second ancestor.
+     * @param x3 x coordinate of the center of the third ancestor.
+     * @param y3 y coordinate of the center of the third ancestor.
+     * @param k3 Curvature of the third ancestor.
+     * @param k4 Curvature of the first child.
+     * @param k5 Curvature of the second child.
+     * @param out Output array - receives x4, y4, k4, x5, y5 and k5.
+     * @param off Offset in the output array.
+     */
+    public static void complexDescartes(double x1, double y1, double k1,
+            double x2, double y2, double k2, double x3, double y3, double k3,
+            double k4, double k5, double[] out, int off){
         
         /**
-         * The first part of the equation.
+         * First part of the equation.
          */
-        double p = a1.k + a2.k + a3.k;
+        double px = x1*k1 + x2*k2 + x3*k3;
+        double py = y1*k1 + y2*k2 + y3*k3;
         
         /**
-         * The second part of the eqation.
+         * Radicand of the second part of the equation.
          */
-        double q = Math.sqrt(a1.k*a2.k + a2.k*a3.k + a3.k*a1.k)*2d;
+        double k12 = k1*k2, k23 = k2*k3, k31 = k3*k1;
+        double wx = (x1*x2 - y1*y2)*k12 + (x2*x3 - y2*y3)*k23
+                + (x3*x1 - y3*y1)*k31;
+        double wy = (x1*y2 + y1*x2)*k12 + (x2*y3 + y2*x3)*k23
+                + (x3*y1 + y3*x1)*k31;
         
-        return new double[] {p+q, p-q};
+        /*
+         * Principal square root of the radicand, following the branch
+         * choice of commons-math's Complex.sqrt().
+         */
+        double qx, qy;
+        if (wx == 0d && wy == 0d) {
+            qx = qy = 0d;
+        } else {
+            double t = Math.sqrt((Math.abs(wx) + Math.hypot(wx, wy)) / 2d);
+            if (wx >= 0d) {
+                qx = t;
+                qy = wy / (2d * t);
+            } else {
+                qx = Math.abs(wy) / (2d * t);
+                qy = (wy >= 0d ? 1d : -1d) * t;
+            }
+        }
+
+        /**
+         * Second part of the eqation.
+         */
+        qx *= 2d;
+        qy *= 2d;
+
+        /* Center of the first child. */
+        out[off] = (px + qx) / k4;
+        out[off+1] = (py + qy) / k4;
+        out[off+2] = k4;
+
+        /* Center of the second child. */
+        out[off+3] = (px - qx) / k5;
+        out[off+4] = (py - qy) / k5;
+        out[off+5] = k5;
     }
     
     /**
@@ -56,37 +149,19 @@ public class DescartesTheorem {
             SoddyCircle a2, SoddyCircle a3, double k4, double k5){
         
         /**
-         * First part of the equation.
+         * The two children as x4, y4, k4, x5, y5, k5.
          */
-        Complex p =  a1.z().multiply(a1.k)
-                .add(a2.z().multiply(a2.k))
-                .add(a3.z().multiply(a3.k));
-        
-        /**
-         * Second part of the eqation.
-         */
-        Complex q =  a1.z().multiply(a2.z()).multiply(a1.k*a2.k)
-                .add(a2.z().multiply(a3.z()).multiply(a2.k*a3.k))
-                .add(a3.z().multiply(a1.z()).multiply(a3.k*a1.k))
-                .sqrt().multiply(2);
-        
-        /**
-         * Center of the first child.
-         */
-        Complex z4 = p.add(q).divide(new Complex(k4, 0d));
-        
-        /**
-         * Center of the second child.
-         */
-        Complex z5 = p.subtract(q).divide(new Complex(k5, 0d));
+        double[] c = new double[6];
+        DescartesTheorem.complexDescartes(a1.x, a1.y, a1.k, a2.x, a2.y, a2.k,
+                a3.x, a3.y, a3.k, k4, k5, c, 0);
         
         /**
          * The two child circles.
          */
         ArrayList<SoddyCircle> children = new ArrayList<SoddyCircle>(2);
         
-        children.add(new SoddyCircle(z4, k4, 0));
-        children.add(new SoddyCircle(z5, k5, 0));
+        children.add(new SoddyCircle(c[0], c[1], c[2], 0));
+        children.add(new SoddyCircle(c[3], c[4], c[5], 0));
         
         return children;
     }
@@ -111,6 +186,54 @@ public class DescartesTheorem {
                 curvatures[0], curvatures[1]);
     }
     
+    /**
+     * Get the curvature of the daughter by the curvatures of the mother and
+     * three ancestors.
+     * Bo Söderberg, Apollonian Tiling, the Lorentz Group and Regular Trees,
+     * Formula 17
+     * @param m Curvature of the mother.
+     * @param k1 Curvature of the first ancestor.
+     * @param k2 Curvature of the second ancestor.
+     * @param k3 Curvature of the third ancestor.
+     * @return The curvature of the daughter.
+     */
+    public static double getDaughterCurvature(double m, double k1, double k2,
+            double k3){
+        return 2 * (m + k2 + k3) - k1;
+    }
+
+    /**
+     * Get the curvature of the daughter by the integer curvatures of the
+     * mother and three ancestors, exactly.
+     * @param m Curvature of the mother.
+     * @param k1 Curvature of the first ancestor.
+     * @param k2 Curvature of the second ancestor.
+     * @param k3 Curvature of the third ancestor.
+     * @return The curvature of the daughter.
+     * @throws ArithmeticException When the curvature overflows a long.
+     * @see #getDaughterCurvature(double, double, double, double)
+     */
+    public static long getDaughterCurvature(long m, long k1, long k2,
+            long k3){
+        long s = Math.addExact(Math.addExact(m, k2), k3);
+        return Math.subtractExact(Math.addExact(s, s), k1);
+    }
+
+    /**
+     * Get the curvature of the daughter by the integer curvatures of the
+     * mother and three ancestors, exactly and however large.
+     * @param m Curvature of the mother.
+     * @param k1 Curvature of the first ancestor.
+     * @param k2 Curvature of the second ancestor.
+     * @param k3 Curvature of the third ancestor.
+     * @return The curvature of the daughter.
+     * @see #getDaughterCurvature(double, double, double, double)
+     */
+    public static BigInteger getDaughterCurvature(BigInteger m, BigInteger k1,
+            BigInteger k2, BigInteger k3){
+        return m.add(k2).add(k3).shiftLeft(1).subtract(k1);
+    }
+
     /**
      * Get the curvature of the daughter by mother and three ancestors.
      * Bo Söderberg, Apollonian Tiling, the Lorentz Group and Regular Trees,
@@ -123,7 +246,190 @@ public class DescartesTheorem {
      */
     public static double getDaughterCurvature(SoddyCircle m, SoddyCircle a1,
             SoddyCircle a2, SoddyCircle a3){
-        return 2 * (m.k + a2.k + a3.k) - a1.k;
+        return DescartesTheorem.getDaughterCurvature(m.k, a1.k, a2.k, a3.k);
+    }
+
+    /**
+     * Get the daughter by mother, three ancestors and curvature of the daugter.
+     * Complex variant of the equation used in getDaughterCurvature.
+     * @param mx x coordinate of the center of the mother.
+     * @param my y coordinate of the center of the mother.
+     * @param mk Curvature of the mother.
+     * @param x1 x coordinate of the center of the first ancestor.
+     * @param y1 y coordinate of the center of the first ancestor.
+     * @param k1 Curvature of the first ancestor.
+     * @param x2 x coordinate of the center of the second ancestor.
+     * @param y2 y coordinate of the center of the second ancestor.
+     * @param k2 Curvature of the second ancestor.
+     * @param x3 x coordinate of the center of the third ancestor.
+     * @param y3 y coordinate of the center of the third ancestor.
+     * @param k3 Curvature of the third ancestor.
+     * @param k Curvature of the daughter.
+     * @param out Output array - receives x, y and k of the daughter.
+     * @param off Offset in the output array.
+     */
+    public static void getDaughter(double mx, double my, double mk,
+            double x1, double y1, double k1, double x2, double y2, double k2,
+            double x3, double y3, double k3, double k, double[] out, int off){
+        out[off] = (2 * (mx*mk + x2*k2 + x3*k3) - x1*k1) / k;
+        out[off+1] = (2 * (my*mk + y2*k2 + y3*k3) - y1*k1) / k;
+        out[off+2] = k;
+    }
+
+    /**
+     * Get the daughter by mother and three ancestors.
+     * @param mx x coordinate of the center of the mother.
+     * @param my y coordinate of the center of the mother.
+     * @param mk Curvature of the mother.
+     * @param x1 x coordinate of the center of the first ancestor.
+     * @param y1 y coordinate of the center of the first ancestor.
+     * @param k1 Curvature of the first ancestor.
+     * @param x2 x coordinate of the center of the second ancestor.
+     * @param y2 y coordinate of the center of the second ancestor.
+     * @param k2 Curvature of the second ancestor.
+     * @param x3 x coordinate of the center of the third ancestor.
+     * @param y3 y coordinate of the center of the third ancestor.
+     * @param k3 Curvature of the third ancestor.
+     * @param out Output array - receives x, y and k of the daughter.
+     * @param off Offset in the output array.
+     */
+    public static void getDaughter(double mx, double my, double mk,
+            double x1, double y1, double k1, double x2, double y2, double k2,
+            double x3, double y3, double k3, double[] out, int off){
+        DescartesTheorem.getDaughter(mx, my, mk, x1, y1, k1, x2, y2, k2,
+                x3, y3, k3, DescartesTheorem.getDaughterCurvature(mk, k1, k2, k3),
+                out, off);
+    }
+
+    /**
+     * Get the daughter by mother and three ancestors in double-double
+     * precision, for circles far smaller than the distances between them,
+     * where the rounding errors of doubles add up to visible gaps.
+     * The circles are given by their indices into parallel arrays of the
+     * high and low parts of their centers and curvatures, and the daughter
+     * is written into them at its own index.
+     * @param x High parts of the x coordinates of the centers.
+     * @param xl Low parts of the x coordinates of the centers.
+     * @param y High parts of the y coordinates of the centers.
+     * @param yl Low parts of the y coordinates of the centers.
+     * @param k High parts of the curvatures.
+     * @param kl Low parts of the curvatures.
+     * @param m Index of the mother.
+     * @param a1 Index of the first ancestor.
+     * @param a2 Index of the second ancestor.
+     * @param a3 Index of the third ancestor.
+     * @param d Index of the daughter.
+     * @param r Three scratch registers, reused from call to call so that
+     * no daughter allocates.
+     * @see DoubleDouble
+     */
+    public static void getDaughter(double[] x, double[] xl, double[] y,
+            double[] yl, double[] k, double[] kl, int m, int a1, int a2,
+            int a3, int d, DoubleDouble[] r){
+        DoubleDouble s = r[0], t = r[1];
+
+        /* The curvature, as in getDaughterCurvature. */
+        DoubleDouble c = r[2].set(k[m], kl[m])
+                .add(k[a2], kl[a2]).add(k[a3], kl[a3]).scale(2d)
+                .subtract(k[a1], kl[a1]);
+
+        DescartesTheorem.weigh(s, t, x, xl, k, kl, m, a1, a2, a3)
+                .divide(c.hi, c.lo);
+        x[d] = s.hi;
+        xl[d] = s.lo;
+        DescartesTheorem.weigh(s, t, y, yl, k, kl, m, a1, a2, a3)
+                .divide(c.hi, c.lo);
+        y[d] = s.hi;
+        yl[d] = s.lo;
+        k[d] = c.hi;
+        kl[d] = c.lo;
+    }
+
+    /**
+     * Compute 2 * (vm*km + v2*k2 + v3*k3) - v1*k1 in double-double
+     * precision.
+     * @param s Receives the result.
+     * @param t Scratch number.
+     * @param v High parts of the coordinates.
+     * @param vl Low parts of the coordinates.
+     * @param k High parts of the curvatures.
+     * @param kl Low parts of the curvatures.
+     * @param m Index of the mother.
+     * @param a1 Index of the first ancestor.
+     * @param a2 Index of the second ancestor.
+     * @param a3 Index of the third ancestor.
+     * @return s.
+     */
+    private static DoubleDouble weigh(DoubleDouble s, DoubleDouble t,
+            double[] v, double[] vl, double[] k, double[] kl, int m, int a1,
+            int a2, int a3){
+        s.set(v[m], vl[m]).multiply(k[m], kl[m]);
+        t.set(v[a2], vl[a2]).multiply(k[a2], kl[a2]);
+        s.add(t.hi, t.lo);
+        t.set(v[a3], vl[a3]).multiply(k[a3], kl[a3]);
+        s.add(t.hi, t.lo).scale(2d);
+        t.set(v[a1], vl[a1]).multiply(k[a1], kl[a1]);
+        return s.subtract(t.hi, t.lo);
+    }
+
+    /**
+     * Check whether two points lie in the same of the two gaps between three
+     * mutually tangent circles. The dual circle of the three - the one
+     * through their points of tangency - is orthogonal to them and separates
+     * the gaps, so the points are in the same gap when they are on the same
+     * side of it.
+     *
+     * With a fourth circle tangent to the three, the curvature of the dual
+     * circle is k* = (k1 + k2 + k3 - k4) / 2, and so is its co-curvature
+     * k|z|^2 - 1/k, the power of the origin by the circle times k, by the
+     * co-curvatures of the four. Taken with the origin at each point, it
+     * tells the side of the point, also when the dual circle is a line, and
+     * stays well conditioned however small the gaps get.
+     *
+     * The circles are given by their indices into parallel arrays of the
+     * coordinates of the centers and the curvatures.
+     * @param x The x coordinates of the centers.
+     * @param y The y coordinates of the centers.
+     * @param k The curvatures.
+     * @param a1 Index of the first circle.
+     * @param a2 Index of the second circle.
+     * @param a3 Index of the third circle.
+     * @param a4 Index of a fourth circle tangent to the three.
+     * @param x1 x coordinate of the first point.
+     * @param y1 y coordinate of the first point.
+     * @param x2 x coordinate of the second point.
+     * @param y2 y coordinate of the second point.
+     * @return Whether the points are in the same gap.
+     */
+    public static boolean isSameGap(double[] x, double[] y, double[] k,
+            int a1, int a2, int a3, int a4, double x1, double y1,
+            double x2, double y2){
+        double s1 = DescartesTheorem.getCoCurvature(x, y, k, a1, x1, y1)
+                + DescartesTheorem.getCoCurvature(x, y, k, a2, x1, y1)
+                + DescartesTheorem.getCoCurvature(x, y, k, a3, x1, y1)
+                - DescartesTheorem.getCoCurvature(x, y, k, a4, x1, y1);
+        double s2 = DescartesTheorem.getCoCurvature(x, y, k, a1, x2, y2)
+                + DescartesTheorem.getCoCurvature(x, y, k, a2, x2, y2)
+                + DescartesTheorem.getCoCurvature(x, y, k, a3, x2, y2)
+                - DescartesTheorem.getCoCurvature(x, y, k, a4, x2, y2);
+        return s1 > 0 == s2 > 0;
+    }
+
+    /**
+     * Get the co-curvature of a circle with the origin at a point - the
+     * power of the point by the circle times its curvature.
+     * @param x The x coordinates of the centers.
+     * @param y The y coordinates of the centers.
+     * @param k The curvatures.
+     * @param c Index of the circle.
+     * @param px x coordinate of the point.
+     * @param py y coordinate of the point.
+     * @return The co-curvature.
+     */
+    private static double getCoCurvature(double[] x, double[] y, double[] k,
+            int c, double px, double py){
+        double dx = x[c] - px, dy = y[c] - py;
+        return k[c] * (dx*dx + dy*dy) - 1 / k[c];
     }
     
     /**
@@ -155,15 +461,12 @@ public class DescartesTheorem {
             SoddyCircle a2, SoddyCircle a3, double k){
         
         /**
-         * The center of the daughter.
+         * The daughter as x, y, k.
          */
-        Complex z =  m.z().multiply(m.k)
-                .add(a2.z().multiply(a2.k))
-                .add(a3.z().multiply(a3.k))
-                .multiply(2)
-                .subtract(a1.z().multiply(a1.k))
-                .divide(new Complex(k, 0));
+        double[] d = new double[3];
+        DescartesTheorem.getDaughter(m.x, m.y, m.k, a1.x, a1.y, a1.k,
+                a2.x, a2.y, a2.k, a3.x, a3.y, a3.k, k, d, 0);
         
-        return new SoddyCircle(z, k, m.l+1);
+        return new SoddyCircle(d[0], d[1], d[2], m.l+1);
     }
 }
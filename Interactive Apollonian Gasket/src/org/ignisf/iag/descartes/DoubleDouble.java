@@ -0,0 +1,140 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.descartes;
+
+/**
+ * Double-double arithmetic - a number held as the unevaluated sum of two
+ * doubles, hi and lo, with |lo| at most half an ulp of hi, giving about 106
+ * bits of precision.
+ *
+ * The number is mutable and every operation updates it in place, so a few
+ * of them can be reused as registers without allocating per operation.
+ * T. J. Dekker, A floating-point technique for extending the available
+ * precision, Numerische Mathematik 18 (1971)
+ * @author Petko Bordjukov
+ */
+public final class DoubleDouble {
+
+    /**
+     * 2^27 + 1, splitting a double into two halves of 26 bits.
+     */
+    private static final double SPLIT = 134217729d;
+
+    /**
+     * The high part - the number rounded to a double.
+     */
+    public double hi;
+
+    /**
+     * The low part - the rounding error of hi.
+     */
+    public double lo;
+
+    /**
+     * Set the value.
+     * @param hi The high part.
+     * @param lo The low part.
+     * @return This number.
+     */
+    public DoubleDouble set(double hi, double lo){
+        this.hi = hi;
+        this.lo = lo;
+        return this;
+    }
+
+    /**
+     * Add a number.
+     * @param bh The high part of the number.
+     * @param bl The low part of the number.
+     * @return This number.
+     */
+    public DoubleDouble add(double bh, double bl){
+        double s = hi + bh;
+        double v = s - hi;
+        double e = (hi - (s - v)) + (bh - v) + lo + bl;
+        return this.normalize(s, e);
+    }
+
+    /**
+     * Subtract a number.
+     * @param bh The high part of the number.
+     * @param bl The low part of the number.
+     * @return This number.
+     */
+    public DoubleDouble subtract(double bh, double bl){
+        return this.add(-bh, -bl);
+    }
+
+    /**
+     * Multiply by a number.
+     * @param bh The high part of the number.
+     * @param bl The low part of the number.
+     * @return This number.
+     */
+    public DoubleDouble multiply(double bh, double bl){
+        double p = hi * bh;
+        double e = DoubleDouble.productError(hi, bh, p) + hi * bl + lo * bh;
+        return this.normalize(p, e);
+    }
+
+    /**
+     * Multiply by a power of two, which is exact.
+     * @param f The power of two.
+     * @return This number.
+     */
+    public DoubleDouble scale(double f){
+        hi *= f;
+        lo *= f;
+        return this;
+    }
+
+    /**
+     * Divide by a number.
+     * @param bh The high part of the number.
+     * @param bl The low part of the number.
+     * @return This number.
+     */
+    public DoubleDouble divide(double bh, double bl){
+        double q = hi / bh;
+
+        /* The remainder this - q*b, and a correction of q by it. */
+        double p = q * bh;
+        double e = DoubleDouble.productError(q, bh, p) + q * bl;
+        double r = ((hi - p) - e) + lo;
+        return this.normalize(q, r / bh);
+    }
+
+    /**
+     * Set the value to the sum of two doubles whose sum may need both parts.
+     * @param s The sum rounded to a double.
+     * @param e The error of the sum.
+     * @return This number.
+     */
+    private DoubleDouble normalize(double s, double e){
+        hi = s + e;
+        lo = e - (hi - s);
+        return this;
+    }
+
+    /**
+     * Get the rounding error of a product.
+     * @param a The first factor.
+     * @param b The second factor.
+     * @param p The product a*b rounded to a double.
+     * @return The error a*b - p, exactly.
+     */
+    private static double productError(double a, double b, double p){
+        double t = SPLIT * a;
+        double ah = t - (t - a), al = a - ah;
+        t = SPLIT * b;
+        double bh = t - (t - b), bl = b - bh;
+        return ((ah * bh - p) + ah * bl + al * bh) + al * bl;
+    }
+
+    @Override
+    public String toString(){
+        return hi + " + " + lo;
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.descartes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+
+/**
+ * Compact binary file format of gaskets.
+ *
+ * The file starts with a header of HEADER_SIZE bytes - the magic number,
+ * the version, the number of circles, the maximum level and the three
+ * generators as x, y and k - followed by a record of RECORD_SIZE bytes per
+ * circle holding its x, y, k and level. All values are little endian.
+ *
+ * Files are written as a stream, so a gasket can be written straight from a
+ * lazy traversal without ever being held in memory, and read by mapping
+ * them, so opening even a huge one is instant and its circles stay off the
+ * Java heap.
+ * @author Petko Bordjukov
+ */
+public class GasketFile {
+
+    /**
+     * The magic number - "IAGS".
+     */
+    public static final int MAGIC = 0x49414753;
+
+    /**
+     * The version of the format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The size of the header in bytes.
+     */
+    public static final int HEADER_SIZE = 96;
+
+    /**
+     * The size of a circle in bytes.
+     */
+    public static final int RECORD_SIZE = 25;
+
+    /**
+     * The size of the write buffer in records.
+     */
+    private static final int BUFFER_RECORDS = 1 << 15;
+
+    /**
+     * Write a materialised set.
+     * @param file The file.
+     * @param set The set.
+     * @return The number of circles written.
+     * @throws IOException When writing fails.
+     */
+    public static long write(File file, ApollonianSet set) throws IOException {
+        SoddyCircleStore store = set.getStore();
+        return GasketFile.write(file, store.get(0), store.get(1), store.get(2),
+                set.getLimits().getMaxLevel(), store.asList().iterator());
+    }
+
+    /**
+     * Write circles as they are produced, e.g. by a lazy traversal of a set.
+     * @param file The file.
+     * @param a1 First generator.
+     * @param a2 Second generator.
+     * @param a3 Third generator.
+     * @param maxLevel The maximum level of the set.
+     * @param circles The circles.
+     * @return The number of circles written.
+     * @throws IOException When writing fails.
+     */
+    public static long write(File file, SoddyCircle a1, SoddyCircle a2,
+            SoddyCircle a3, int maxLevel, Iterator<SoddyCircle> circles)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(
+                    BUFFER_RECORDS * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            /* The count is not known yet - the header is written last. */
+            channel.position(HEADER_SIZE);
+            long count = 0;
+            while (circles.hasNext()) {
+                SoddyCircle c = circles.next();
+                if (buffer.remaining() < RECORD_SIZE) {
+                    GasketFile.drain(channel, buffer);
+                }
+                buffer.putDouble(c.x).putDouble(c.y).putDouble(c.k)
+                        .put((byte) c.l);
+                count++;
+            }
+            GasketFile.drain(channel, buffer);
+
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(count)
+                    .putInt(maxLevel).putInt(0);
+            for (SoddyCircle a : new SoddyCircle[] {a1, a2, a3})
+                buffer.putDouble(a.x).putDouble(a.y).putDouble(a.k);
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer, buffer.position());
+            return count;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Write out the contents of a buffer and clear it.
+     * @param channel The channel.
+     * @param buffer The buffer.
+     * @throws IOException When writing fails.
+     */
+    private static void drain(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Map a file.
+     * @param file The file.
+     * @return The circles in it.
+     * @throws IOException When the file can not be read or is not a gasket.
+     */
+    public static MappedSoddyCircles map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException("Not a gasket file: " + file);
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC)
+                throw new IOException("Not a gasket file: " + file);
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported version " + version
+                        + ": " + file);
+            long count = header.getLong();
+            int maxLevel = header.getInt();
+            header.getInt();
+            SoddyCircle[] generators = new SoddyCircle[3];
+            for (int i = 0; i < 3; i++)
+                generators[i] = new SoddyCircle(header.getDouble(),
+                        header.getDouble(), header.getDouble(), -1);
+
+            if (count > SoddyCircleStore.MAX_CAPACITY)
+                throw new IOException("Too many circles: " + count);
+            if (channel.size() < HEADER_SIZE + count * RECORD_SIZE)
+                throw new IOException("Truncated gasket file: " + file);
+
+            int segments = (int) ((count + MappedSoddyCircles.SEGMENT_SIZE - 1)
+                    >> MappedSoddyCircles.SEGMENT_SHIFT);
+            MappedByteBuffer[] mapped = new MappedByteBuffer[segments];
+            for (int i = 0; i < segments; i++) {
+                long first = (long) i << MappedSoddyCircles.SEGMENT_SHIFT;
+                long size = Math.min(MappedSoddyCircles.SEGMENT_SIZE,
+                        count - first);
+                mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + first * RECORD_SIZE, size * RECORD_SIZE);
+                mapped[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new MappedSoddyCircles(mapped, (int) count, maxLevel,
+                    generators);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.descartes;
+
+import java.util.Arrays;
+
+/**
+ * The place of a point in an Apollonian gasket - the innermost circle
+ * containing it, or the innermost gap when it is in none, and the address
+ * of that circle in the Apollonian tree.
+ *
+ * The point is located by descending the tree: of the three daughters of a
+ * circle only the one whose gap holds the point is followed, so a circle at
+ * level n is found in O(n) time without generating the set.
+ *
+ * The address starts with the child of the generators, 0 or 1, followed by
+ * a ternary digit per level - 0, 1 or 2 for the daughters reflecting the
+ * first, third and second circle of the gap, the order ApollonianSet
+ * generates them in.
+ * @author Petko Bordjukov
+ */
+public class GasketLocation {
+
+    /**
+     * The ratio of the radius of a circle to the extent of the generators
+     * below which the descent stops, as double precision no longer tells
+     * the gaps apart reliably.
+     */
+    public static final double MIN_RATIO = 0x1p-40;
+
+    /**
+     * The circle containing the point, null if the point is in a gap.
+     */
+    private final SoddyCircle circle;
+
+    /**
+     * The three circles bounding the gap holding the point or filled by the
+     * circle, null for a generator.
+     */
+    private final SoddyCircle[] gap;
+
+    /**
+     * The address of the circle, or of the circle filling the gap.
+     */
+    private final int[] address;
+
+    /**
+     * The index of a generator, -1 for any other circle.
+     */
+    private final int generator;
+
+    /**
+     * Create a location.
+     * @param circle The circle containing the point, null for none.
+     * @param gap The gap, null for a generator.
+     * @param address The address.
+     * @param generator The index of the generator, -1 for none.
+     */
+    private GasketLocation(SoddyCircle circle, SoddyCircle[] gap,
+            int[] address, int generator){
+        this.circle = circle;
+        this.gap = gap;
+        this.address = address;
+        this.generator = generator;
+    }
+
+    /**
+     * Locate a point in the gasket of three generators.
+     *
+     * The descent keeps the gap, its mother and her three daughters in
+     * seven slots of scratch arrays, in double-double precision, as the
+     * rounding errors of the centers would otherwise build up over the
+     * thousands of levels a point near a point of tangency takes.
+     * @param a1 First generator.
+     * @param a2 Second generator.
+     * @param a3 Third generator.
+     * @param px x coordinate of the point.
+     * @param py y coordinate of the point.
+     * @param maxLevel The deepest level to descend to.
+     * @return The location, null if the point is outside the gasket.
+     */
+    static GasketLocation locate(SoddyCircle a1, SoddyCircle a2,
+            SoddyCircle a3, double px, double py, int maxLevel){
+        double[] x = new double[7], y = new double[7], k = new double[7];
+        double[] xl = new double[7], yl = new double[7], kl = new double[7];
+        int[] l = new int[7];
+
+        /* The generators in slots 0 to 2, their children in 3 and 4. */
+        SoddyCircle[] generators = {a1, a2, a3};
+        double extent = 0;
+        for (int i = 0; i < 3; i++) {
+            SoddyCircle a = generators[i];
+            x[i] = a.x;
+            y[i] = a.y;
+            k[i] = a.k;
+            l[i] = a.l;
+            if (a.k < 0 && !GasketLocation.contains(x, y, k, i, px, py))
+                return null;
+            if (a.k > 0 && GasketLocation.contains(x, y, k, i, px, py))
+                return new GasketLocation(a, null, new int[0], i);
+            extent = Math.max(extent, Math.max(Math.abs(a.x), Math.abs(a.y)));
+            if (a.k != 0) extent = Math.max(extent, Math.abs(1d/a.k));
+        }
+        double[] c = new double[2];
+        DescartesTheorem.descartes(a1.k, a2.k, a3.k, c, 0);
+        double[] children = new double[6];
+        DescartesTheorem.complexDescartes(a1.x, a1.y, a1.k, a2.x, a2.y, a2.k,
+                a3.x, a3.y, a3.k, c[0], c[1], children, 0);
+        for (int i = 3; i < 5; i++) {
+            x[i] = children[3*(i-3)];
+            y[i] = children[3*(i-3) + 1];
+            k[i] = children[3*(i-3) + 2];
+            if (k[i] < 0 && !GasketLocation.contains(x, y, k, i, px, py))
+                return null;
+        }
+
+        /*
+         * The two children fill the two gaps of the generators. A child of
+         * negative curvature encloses the generators, so the gap it fills
+         * is told by the other child.
+         */
+        int r = k[3] > 0 ? 3 : 4;
+        boolean first = DescartesTheorem.isSameGap(x, y, k, 0, 1, 2, 3,
+                px, py, x[r], y[r]) == (r == 3);
+
+        int[] address = new int[16];
+        int n = 1;
+        address[0] = first ? 0 : 1;
+        int g0 = 0, g1 = 1, g2 = 2, m = first ? 3 : 4;
+        if (k[m] > 0 && GasketLocation.contains(x, y, k, m, px, py))
+            return GasketLocation.create(x, y, k, l, m, g0, g1, g2,
+                    address, n, true);
+        if (maxLevel < 1 || k[m] > 0 && 1d/k[m] < MIN_RATIO * extent)
+            return GasketLocation.create(x, y, k, l, m, g0, g1, g2,
+                    address, n, false);
+
+        /* Scratch registers of the double-double kernel. */
+        DoubleDouble[] dd = {new DoubleDouble(), new DoubleDouble(),
+            new DoubleDouble()};
+
+        /* Descending into the gap holding the point, level by level. */
+        for (int level = 1; ; level++) {
+
+            /* The three slots not taken by the gap and its mother. */
+            int[] free = new int[3];
+            for (int i = 0, f = 0; i < 7; i++)
+                if (i != g0 && i != g1 && i != g2 && i != m) free[f++] = i;
+            int d0 = free[0], d1 = free[1], d2 = free[2];
+
+            /* The three daughters - reflections of g0, g2 and g1. */
+            DescartesTheorem.getDaughter(x, xl, y, yl, k, kl,
+                    m, g0, g1, g2, d0, dd);
+            DescartesTheorem.getDaughter(x, xl, y, yl, k, kl,
+                    m, g2, g0, g1, d1, dd);
+            int d, digit;
+            if (DescartesTheorem.isSameGap(x, y, k, m, g1, g2, g0, px, py,
+                    x[d0], y[d0])) {
+                d = d0;
+                digit = 0;
+                g0 = m;
+            } else if (DescartesTheorem.isSameGap(x, y, k, m, g0, g1, g2,
+                    px, py, x[d1], y[d1])) {
+                d = d1;
+                digit = 1;
+                g2 = g1;
+                g1 = g0;
+                g0 = m;
+            } else {
+                DescartesTheorem.getDaughter(x, xl, y, yl, k, kl,
+                        m, g1, g2, g0, d2, dd);
+                d = d2;
+                digit = 2;
+                g1 = g2;
+                g2 = g0;
+                g0 = m;
+            }
+            m = d;
+            l[m] = level;
+
+            if (n == address.length)
+                address = Arrays.copyOf(address, 2 * n);
+            address[n++] = digit;
+            if (GasketLocation.contains(x, y, k, m, px, py))
+                return GasketLocation.create(x, y, k, l, m, g0, g1, g2,
+                        address, n, true);
+            if (level >= maxLevel || 1d/k[m] < MIN_RATIO * extent)
+                return GasketLocation.create(x, y, k, l, m, g0, g1, g2,
+                        address, n, false);
+        }
+    }
+
+    /**
+     * Create the location of a point in a circle or in the gap it fills.
+     * @param x The x coordinates of the slots.
+     * @param y The y coordinates of the slots.
+     * @param k The curvatures of the slots.
+     * @param l The levels of the slots.
+     * @param m The slot of the circle.
+     * @param g0 The slot of the first circle of the gap.
+     * @param g1 The slot of the second circle of the gap.
+     * @param g2 The slot of the third circle of the gap.
+     * @param address The address.
+     * @param n The number of digits of the address.
+     * @param in Whether the point is in the circle.
+     * @return The location.
+     */
+    private static GasketLocation create(double[] x, double[] y, double[] k,
+            int[] l, int m, int g0, int g1, int g2, int[] address, int n,
+            boolean in){
+        SoddyCircle[] gap = new SoddyCircle[3];
+        int[] slots = {g0, g1, g2};
+        for (int i = 0; i < 3; i++) {
+            int s = slots[i];
+            gap[i] = new SoddyCircle(x[s], y[s], k[s], l[s]);
+        }
+        SoddyCircle circle = in ? new SoddyCircle(x[m], y[m], k[m], l[m])
+                : null;
+        return new GasketLocation(circle, gap, Arrays.copyOf(address, n), -1);
+    }
+
+    /**
+     * Check whether the disk of a circle contains a point.
+     * @param x The x coordinates of the slots.
+     * @param y The y coordinates of the slots.
+     * @param k The curvatures of the slots.
+     * @param c The slot of the circle.
+     * @param px x coordinate of the point.
+     * @param py y coordinate of the point.
+     * @return Whether the point is in the disk.
+     */
+    private static boolean contains(double[] x, double[] y, double[] k, int c,
+            double px, double py){
+        double dx = (px - x[c]) * k[c], dy = (py - y[c]) * k[c];
+        return dx*dx + dy*dy <= 1;
+    }
+
+    /**
+     * Get the circle containing the point.
+     * @return The circle, null if the point is in a gap.
+     */
+    public SoddyCircle getCircle() {
+        return circle;
+    }
+
+    /**
+     * Get the three circles bounding the innermost gap known to hold the
+     * point, or the gap filled by the circle containing it.
+     * @return The three circles, null for a generator.
+     */
+    public SoddyCircle[] getGap() {
+        return gap == null ? null : gap.clone();
+    }
+
+    /**
+     * Get the address of the circle containing the point, or of the circle
+     * filling the gap holding it.
+     * @return The address, empty for a generator.
+     */
+    public int[] getAddress() {
+        return address.clone();
+    }
+
+    /**
+     * Get the level of the circle containing the point, or of the circle
+     * filling the gap holding it.
+     * @return The level, -1 for a generator.
+     */
+    public int getLevel() {
+        return address.length - 1;
+    }
+
+    /**
+     * Check whether the point is in a gap rather than in a circle - when
+     * the descent stopped at the maximum level or the limit of precision.
+     * @return Whether the point is in a gap.
+     */
+    public boolean isGap() {
+        return circle == null;
+    }
+
+    /**
+     * Get the index of the circle in an ApollonianSet of the same
+     * generators limited only by level, which holds the levels in order and
+     * the daughters of every circle in the order of the digits.
+     * @return The index, -1 if it is too large for a set.
+     */
+    public long getIndex() {
+        if (generator >= 0) return generator;
+
+        /*
+         * 3 + 2 + 2*3 + ... + 2*3^(l-1) circles precede level l, i.e.
+         * 2 + 3^l. The loop gives up early only to keep clear of overflow.
+         */
+        long base = 1, position = address[0];
+        for (int l = 1; l < address.length; l++) {
+            base *= 3;
+            position = 3*position + address[l];
+            if (base > SoddyCircleStore.MAX_CAPACITY) return -1;
+        }
+        long index = 2 + base + position;
+        return index < SoddyCircleStore.MAX_CAPACITY ? index : -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int digit : address) s.append(digit);
+        return (circle == null ? "Gap " : "Circle ") + s + " at level "
+                + this.getLevel();
+    }
+}
@@ -0,0 +1,353 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.descartes;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Curvatures of an integral Apollonian packing.
+ *
+ * When the curvatures of a Descartes quadruple are integers, so are those
+ * of all circles of the packing, as getDaughterCurvature() only adds and
+ * doubles them. The curvatures are enumerated exactly by that recurrence in
+ * longs, without computing any centers, and a subtree whose curvatures
+ * overflow a long is enumerated in BigIntegers instead.
+ *
+ * The circles are enumerated depth first with an explicit stack, so nothing
+ * but the current path is held in memory. The three generators and their
+ * two children are at level 0, as in ApollonianSet.
+ * @author Petko Bordjukov
+ */
+public class IntegralCurvatures {
+
+    /**
+     * Receives the enumerated curvatures.
+     */
+    public interface Visitor {
+        /**
+         * Receive the curvature of a circle.
+         * @param k The curvature.
+         * @param level The level of the circle.
+         */
+        void visit(long k, int level);
+
+        /**
+         * Receive the curvature of a circle too large for a long.
+         * @param k The curvature.
+         * @param level The level of the circle.
+         */
+        void visit(BigInteger k, int level);
+    }
+
+    /**
+     * The largest maximum curvature for which circles with no daughters
+     * within it are told apart before descending into them - small enough
+     * for the test not to overflow.
+     */
+    private static final long MAX_PRUNED = Long.MAX_VALUE >> 4;
+
+    /**
+     * Returned by daughter() when there is no daughter to descend into - no
+     * curvature of a packing comes near it, unlike 0, the curvature of a
+     * line.
+     */
+    private static final long NONE = Long.MIN_VALUE;
+
+    /**
+     * The three generators and their two children.
+     */
+    protected final long[] root;
+
+    /**
+     * Whether the packing is bounded - has no straight line.
+     */
+    protected final boolean bounded;
+
+    /**
+     * The maximum level of the circles enumerated.
+     */
+    protected int maxLevel = Integer.MAX_VALUE;
+
+    /**
+     * The maximum curvature of the circles enumerated.
+     */
+    protected long maxCurvature = Long.MAX_VALUE;
+
+    /**
+     * Create the curvatures of a packing by a Descartes quadruple - three
+     * generators and a child of theirs, e.g. -1, 2, 2, 3.
+     * @param k1 Curvature of the first generator.
+     * @param k2 Curvature of the second generator.
+     * @param k3 Curvature of the third generator.
+     * @param k4 Curvature of a child of the generators.
+     * @throws IllegalArgumentException When the curvatures are not a
+     * Descartes quadruple.
+     */
+    public IntegralCurvatures(long k1, long k2, long k3, long k4){
+        BigInteger s = BigInteger.ZERO, q = BigInteger.ZERO;
+        for (long k : new long[] {k1, k2, k3, k4}) {
+            BigInteger b = BigInteger.valueOf(k);
+            s = s.add(b);
+            q = q.add(b.multiply(b));
+        }
+        if (!s.multiply(s).equals(q.shiftLeft(1)))
+            throw new IllegalArgumentException("Not a Descartes quadruple: "
+                    + k1 + ", " + k2 + ", " + k3 + ", " + k4);
+
+        this.root = new long[] {k1, k2, k3, k4,
+                DescartesTheorem.getDaughterCurvature(k1, k4, k2, k3)};
+        this.bounded = !IntegralCurvatures.hasLine(k1, k2, k3, k4);
+    }
+
+    /**
+     * Check whether the packing of a Descartes quadruple has a straight
+     * line. The largest curvature is replaced by that of its reflection
+     * while that is smaller, which leads to the root quadruple of the
+     * packing - the one of its largest circles. An integral root quadruple
+     * starts with a curvature of at most 0, a line when it is 0 - the only
+     * integral packing with lines is the strip packing, 0, 0, n, n.
+     * @param k The curvatures of the quadruple.
+     * @return Whether the packing has a line.
+     * @throws IllegalArgumentException When the curvatures are too large to
+     * reduce in longs.
+     */
+    private static boolean hasLine(long... k){
+        k = k.clone();
+        try {
+            while (true) {
+                Arrays.sort(k);
+                if (k[0] == 0) return true;
+                long r = Math.subtractExact(Math.multiplyExact(2L,
+                        Math.addExact(Math.addExact(k[0], k[1]), k[2])), k[3]);
+                if (r >= k[3]) return false;
+                k[3] = r;
+            }
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Curvatures too large: "
+                    + Arrays.toString(k));
+        }
+    }
+
+    /**
+     * Get the curvatures of the three generators and their two children.
+     * @return The curvatures.
+     */
+    public long[] getRoot() {
+        return root.clone();
+    }
+
+    /**
+     * Check whether the packing is bounded, i.e. has no straight line. A
+     * packing with a line has infinitely many circles of each curvature.
+     * @return Whether the packing is bounded.
+     */
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    /**
+     * Get the value of maxLevel
+     *
+     * @return the value of maxLevel
+     */
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * Set the value of maxLevel
+     *
+     * @param maxLevel new value of maxLevel
+     */
+    public void setMaxLevel(int maxLevel) {
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * Get the value of maxCurvature
+     *
+     * @return the value of maxCurvature
+     */
+    public long getMaxCurvature() {
+        return maxCurvature;
+    }
+
+    /**
+     * Set the value of maxCurvature. A daughter is smaller than the circles
+     * of the gap it fills, so the subtree of a circle over the maximum is
+     * skipped whole. That bounds the enumeration only when the packing is
+     * bounded - a packing with a straight line has infinitely many circles
+     * of the same curvature and needs a maximum level.
+     * @see #isBounded()
+     *
+     * @param maxCurvature new value of maxCurvature
+     */
+    public void setMaxCurvature(long maxCurvature) {
+        this.maxCurvature = maxCurvature;
+    }
+
+    /**
+     * Enumerate the curvatures.
+     * @param v The visitor.
+     * @return The number of circles enumerated.
+     * @throws IllegalStateException When the level is not limited and
+     * either the curvature is not limited or the packing is not bounded.
+     */
+    public long forEach(Visitor v){
+        if (maxLevel == Integer.MAX_VALUE
+                && (maxCurvature == Long.MAX_VALUE || !bounded))
+            throw new IllegalStateException("Unlimited enumeration");
+
+        long count = 0;
+        for (long k : root) {
+            if (k <= maxCurvature) {
+                v.visit(k, 0);
+                count++;
+            }
+        }
+        for (int i = 3; i < 5; i++) {
+            if (root[i] <= maxCurvature)
+                count += this.forEach(root[i], root[0], root[1], root[2], 0, v);
+        }
+        return count;
+    }
+
+    /**
+     * Enumerate the descendants of a circle in a gap.
+     * @param m Curvature of the circle.
+     * @param a1 Curvature of the first circle of the gap.
+     * @param a2 Curvature of the second circle of the gap.
+     * @param a3 Curvature of the third circle of the gap.
+     * @param level The level of the circle.
+     * @param v The visitor.
+     * @return The number of descendants enumerated.
+     */
+    protected long forEach(long m, long a1, long a2, long a3, int level,
+            Visitor v){
+        long count = 0;
+
+        /* The number of circles enumerated in BigIntegers. */
+        long[] big = {0};
+
+        /* The stack of the circles to descend into, with their gaps. */
+        long[] stack = new long[4 * 64];
+        int[] levels = new int[64];
+        int sp = 0;
+        stack[0] = m; stack[1] = a1; stack[2] = a2; stack[3] = a3;
+        levels[sp++] = level;
+
+        while (sp > 0) {
+            sp--;
+            int b = 4 * sp, l = levels[sp];
+            if (l >= maxLevel) continue;
+            m = stack[b]; a1 = stack[b+1]; a2 = stack[b+2]; a3 = stack[b+3];
+
+            /* The three daughters - reflections of a1, a3 and a2. */
+            long d0 = this.daughter(m, a1, a2, a3, l, v, big);
+            long d1 = this.daughter(m, a3, a1, a2, l, v, big);
+            long d2 = this.daughter(m, a2, a3, a1, l, v, big);
+            if (d0 != NONE) count++;
+            if (d1 != NONE) count++;
+            if (d2 != NONE) count++;
+
+            /* The daughters at the maximum level have nothing to descend. */
+            if (l + 1 >= maxLevel) continue;
+            if (sp + 3 > levels.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+                levels = Arrays.copyOf(levels, levels.length * 2);
+            }
+            if (d0 != NONE && this.fertile(d0, m, a2, a3)) {
+                b = 4 * sp;
+                stack[b] = d0; stack[b+1] = m; stack[b+2] = a2; stack[b+3] = a3;
+                levels[sp++] = l + 1;
+            }
+            if (d1 != NONE && this.fertile(d1, m, a1, a2)) {
+                b = 4 * sp;
+                stack[b] = d1; stack[b+1] = m; stack[b+2] = a1; stack[b+3] = a2;
+                levels[sp++] = l + 1;
+            }
+            if (d2 != NONE && this.fertile(d2, m, a3, a1)) {
+                b = 4 * sp;
+                stack[b] = d2; stack[b+1] = m; stack[b+2] = a3; stack[b+3] = a1;
+                levels[sp++] = l + 1;
+            }
+        }
+        return count + big[0];
+    }
+
+    /**
+     * Check whether a circle in a gap has a daughter within the maximum
+     * curvature. The smallest daughter is the reflection of the smallest
+     * circle of the gap - the one of the largest curvature.
+     * @param m Curvature of the circle.
+     * @param a1 Curvature of the first circle of the gap.
+     * @param a2 Curvature of the second circle of the gap.
+     * @param a3 Curvature of the third circle of the gap.
+     * @return Whether to descend into the circle.
+     */
+    private boolean fertile(long m, long a1, long a2, long a3){
+        if (maxCurvature > MAX_PRUNED) return true;
+        long a = Math.max(a1, Math.max(a2, a3));
+        return 2 * (m + a1 + a2 + a3) - 3 * a <= maxCurvature;
+    }
+
+    /**
+     * Visit the daughter of a circle in a gap, unless it is over the
+     * maximum curvature. A daughter whose curvature overflows a long is
+     * enumerated in BigIntegers with all its descendants.
+     * @param m Curvature of the mother.
+     * @param r Curvature of the circle of the gap reflected.
+     * @param p Curvature of the second circle of the gap.
+     * @param q Curvature of the third circle of the gap.
+     * @param level The level of the mother.
+     * @param v The visitor.
+     * @param big Accumulates the number of circles enumerated in
+     * BigIntegers.
+     * @return The curvature of the daughter to descend into, NONE for none.
+     */
+    private long daughter(long m, long r, long p, long q, int level,
+            Visitor v, long[] big){
+        long d;
+        try {
+            d = DescartesTheorem.getDaughterCurvature(m, r, p, q);
+        } catch (ArithmeticException e) {
+            /* Past any long, so past any maximum curvature too. */
+            if (maxCurvature == Long.MAX_VALUE)
+                big[0] += this.forEach(BigInteger.valueOf(m),
+                        BigInteger.valueOf(r), BigInteger.valueOf(p),
+                        BigInteger.valueOf(q), level, v);
+            return NONE;
+        }
+        if (d > maxCurvature) return NONE;
+        v.visit(d, level + 1);
+        return d;
+    }
+
+    /**
+     * Enumerate the daughter of a circle in a gap whose curvature overflows
+     * a long, with its descendants. Only reached when the level is limited,
+     * so the recursion is as deep as the levels left.
+     * @param m Curvature of the mother.
+     * @param r Curvature of the circle of the gap reflected.
+     * @param p Curvature of the second circle of the gap.
+     * @param q Curvature of the third circle of the gap.
+     * @param level The level of the mother.
+     * @param v The visitor.
+     * @return The number of circles enumerated.
+     */
+    private long forEach(BigInteger m, BigInteger r, BigInteger p,
+            BigInteger q, int level, Visitor v){
+        BigInteger d = DescartesTheorem.getDaughterCurvature(m, r, p, q);
+        v.visit(d, level + 1);
+        long count = 1;
+        if (level + 1 < maxLevel) {
+            count += this.forEach(d, m, p, q, level + 1, v);
+            count += this.forEach(d, q, m, p, level + 1, v);
+            count += this.forEach(d, p, q, m, level + 1, v);
+        }
+        return count;
+    }
+}
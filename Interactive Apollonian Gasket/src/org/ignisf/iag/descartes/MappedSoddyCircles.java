@@ -0,0 +1,184 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.descartes;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Circles of a gasket file mapped into memory. Nothing is read until it is
+ * accessed, and then it is paged in by the operating system rather than
+ * copied onto the Java heap.
+ * @see GasketFile
+ * @author Petko Bordjukov
+ */
+public class MappedSoddyCircles implements SoddyCircles {
+
+    /**
+     * A buffer can map at most 2GB, so the records are mapped in segments
+     * of 2^SEGMENT_SHIFT records.
+     */
+    static final int SEGMENT_SHIFT = 25;
+
+    /**
+     * The number of records in a segment.
+     */
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    /**
+     * The mapped segments.
+     */
+    private final ByteBuffer[] segments;
+
+    /**
+     * The number of circles.
+     */
+    private final int size;
+
+    /**
+     * The maximum level of the set.
+     */
+    private final int maxLevel;
+
+    /**
+     * The three generators.
+     */
+    private final SoddyCircle[] generators;
+
+    /**
+     * Create a view of mapped records.
+     * @param segments The mapped segments.
+     * @param size The number of circles.
+     * @param maxLevel The maximum level of the set.
+     * @param generators The three generators.
+     */
+    MappedSoddyCircles(ByteBuffer[] segments, int size, int maxLevel,
+            SoddyCircle[] generators){
+        this.segments = segments;
+        this.size = size;
+        this.maxLevel = maxLevel;
+        this.generators = generators;
+    }
+
+    /**
+     * Get the maximum level of the set.
+     * @return The maximum level.
+     */
+    public int getMaxLevel(){
+        return maxLevel;
+    }
+
+    /**
+     * Get a generator of the set.
+     * @param i The index of the generator, 0 to 2.
+     * @return The generator.
+     */
+    public SoddyCircle getGenerator(int i){
+        SoddyCircle g = generators[i];
+        return new SoddyCircle(g.x, g.y, g.k, g.l);
+    }
+
+    /**
+     * Get the offset of a field of a record in its segment.
+     * @param i The index of the circle.
+     * @param field The offset of the field in the record.
+     * @return The offset.
+     */
+    private static int offset(int i, int field){
+        return (i & (SEGMENT_SIZE - 1)) * GasketFile.RECORD_SIZE + field;
+    }
+
+    /**
+     * Get the number of circles in the file.
+     * @return The number of circles.
+     */
+    @Override
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Get the x coordinate of the center of a circle.
+     * @param i The index of the circle.
+     * @return The x coordinate.
+     */
+    @Override
+    public double getX(int i){
+        return segments[i >>> SEGMENT_SHIFT].getDouble(offset(i, 0));
+    }
+
+    /**
+     * Get the y coordinate of the center of a circle.
+     * @param i The index of the circle.
+     * @return The y coordinate.
+     */
+    @Override
+    public double getY(int i){
+        return segments[i >>> SEGMENT_SHIFT].getDouble(offset(i, 8));
+    }
+
+    /**
+     * Get the curvature of a circle.
+     * @param i The index of the circle.
+     * @return The curvature.
+     */
+    @Override
+    public double getK(int i){
+        return segments[i >>> SEGMENT_SHIFT].getDouble(offset(i, 16));
+    }
+
+    /**
+     * Get the level of a circle.
+     * @param i The index of the circle.
+     * @return The level.
+     */
+    @Override
+    public int getLevel(int i){
+        return segments[i >>> SEGMENT_SHIFT].get(offset(i, 24));
+    }
+
+    /**
+     * Get the radius of a circle.
+     * @param i The index of the circle.
+     * @return The radius - 1/|k|.
+     */
+    @Override
+    public double getRadius(int i){
+        return Math.abs(1d/getK(i));
+    }
+
+    /**
+     * Get a circle as a SoddyCircle, read from the file. Allocates a new
+     * object on every call.
+     * @param i The index of the circle.
+     * @return The circle.
+     */
+    @Override
+    public SoddyCircle get(int i){
+        if (i >= size) throw new IndexOutOfBoundsException("Index: " + i);
+        return new SoddyCircle(getX(i), getY(i), getK(i), getLevel(i));
+    }
+
+    /**
+     * Get a read-only list view of the circles. The elements are read from
+     * the file on access.
+     * @return The view.
+     */
+    @Override
+    public List<SoddyCircle> asList(){
+        return new AbstractList<SoddyCircle>() {
+            @Override
+            public SoddyCircle get(int i) {
+                return MappedSoddyCircles.this.get(i);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
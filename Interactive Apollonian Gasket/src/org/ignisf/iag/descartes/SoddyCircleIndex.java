@@ -0,0 +1,422 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.descartes;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Spatial index of Soddy circles - a packed R-tree answering which circle
+ * contains a point and which circles intersect a rectangle in logarithmic
+ * time.
+ *
+ * The circles are sorted by the Morton code of their centers, so circles
+ * close to each other end up close in the order, and packed FANOUT to a
+ * leaf. The leaves are packed FANOUT to a node, and so on up to a single
+ * root. Nothing is ever inserted, so the tree is built bottom up in one
+ * pass and held in flat arrays of bounds.
+ *
+ * The circles of negative curvature enclose all the others and are kept out
+ * of the tree, lest their bounds cover everything.
+ * @author Petko Bordjukov
+ */
+public class SoddyCircleIndex {
+
+    /**
+     * The number of entries of a node.
+     */
+    static final int FANOUT = 16;
+
+    /**
+     * The number of circles below which a range is not split when building
+     * in parallel.
+     */
+    static final int THRESHOLD = 1 << 14;
+
+    /**
+     * The circles.
+     */
+    protected final SoddyCircles circles;
+
+    /**
+     * The indices of the circles of positive curvature in Morton order.
+     */
+    private final int[] order;
+
+    /**
+     * The indices of the circles of negative curvature.
+     */
+    private final int[] outer;
+
+    /**
+     * The bounds of the nodes by level, the leaves being level 0. A leaf i
+     * holds the circles FANOUT*i to FANOUT*(i+1) - 1 in order, and a node i
+     * of a higher level the nodes FANOUT*i to FANOUT*(i+1) - 1 of the level
+     * below it.
+     */
+    private final double[][] minX, minY, maxX, maxY;
+
+    /**
+     * Index circles.
+     * @param circles The circles.
+     * @param pool The pool to build in, e.g. ForkJoinPool.commonPool(), or
+     * null to build on the calling thread.
+     */
+    public SoddyCircleIndex(SoddyCircles circles, ForkJoinPool pool){
+        this.circles = circles;
+
+        /* Setting the circles enclosing the others aside. */
+        int n = circles.size(), inner = 0;
+        double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++){
+            if (circles.getK(i) <= 0) continue;
+            double x = circles.getX(i), y = circles.getY(i);
+            x0 = Math.min(x0, x);
+            y0 = Math.min(y0, y);
+            x1 = Math.max(x1, x);
+            y1 = Math.max(y1, y);
+            inner++;
+        }
+        this.outer = new int[n - inner];
+        long[] keys = new long[inner];
+        for (int i = 0, j = 0, o = 0; i < n; i++){
+            if (circles.getK(i) > 0) keys[j++] = i;
+            else outer[o++] = i;
+        }
+
+        /* Sorting the rest by the Morton codes of their centers. */
+        double sx = x1 > x0 ? 0xffff / (x1 - x0) : 0;
+        double sy = y1 > y0 ? 0xffff / (y1 - y0) : 0;
+        if (pool == null || inner <= THRESHOLD){
+            this.encode(keys, 0, inner, x0, y0, sx, sy);
+            Arrays.sort(keys);
+        } else {
+            pool.invoke(new Keys(keys, 0, inner, x0, y0, sx, sy));
+            /* Sorted in the common pool whatever the pool. */
+            Arrays.parallelSort(keys);
+        }
+        this.order = new int[inner];
+        for (int j = 0; j < inner; j++)
+            order[j] = (int) (keys[j] & Integer.MAX_VALUE);
+
+        /* Packing the circles into leaves and the leaves into nodes. */
+        int levels = 1;
+        for (int c = (inner + FANOUT - 1) / FANOUT; c > 1;
+                c = (c + FANOUT - 1) / FANOUT)
+            levels++;
+        this.minX = new double[levels][];
+        this.minY = new double[levels][];
+        this.maxX = new double[levels][];
+        this.maxY = new double[levels][];
+        int count = inner;
+        for (int l = 0; l < levels; l++){
+            count = (count + FANOUT - 1) / FANOUT;
+            minX[l] = new double[count];
+            minY[l] = new double[count];
+            maxX[l] = new double[count];
+            maxY[l] = new double[count];
+            if (l > 0){
+                this.bound(l);
+            } else if (pool == null || inner <= THRESHOLD){
+                this.bound(0, count);
+            } else {
+                pool.invoke(new Leaves(0, count));
+            }
+        }
+    }
+
+    /**
+     * Replace the indices of a range of circles by their keys - the Morton
+     * code of the center above the 31 bits of the index.
+     * @param keys The indices.
+     * @param from The first index of the range.
+     * @param to The index after the last one of the range.
+     * @param x0 The least x of the centers.
+     * @param y0 The least y of the centers.
+     * @param sx The scale of x to 16 bits.
+     * @param sy The scale of y to 16 bits.
+     */
+    private void encode(long[] keys, int from, int to, double x0, double y0,
+            double sx, double sy){
+        for (int j = from; j < to; j++){
+            int i = (int) keys[j];
+            long mx = SoddyCircleIndex.spread((circles.getX(i) - x0) * sx);
+            long my = SoddyCircleIndex.spread((circles.getY(i) - y0) * sy);
+            keys[j] = (mx | my << 1) << 31 | i;
+        }
+    }
+
+    /**
+     * Spread a coordinate scaled to 16 bits to the even bits of an int.
+     * @param v The coordinate.
+     * @return The spread bits.
+     */
+    private static long spread(double v){
+        long b = (long) v & 0xffff;
+        b = (b | b << 8) & 0x00ff00ffL;
+        b = (b | b << 4) & 0x0f0f0f0fL;
+        b = (b | b << 2) & 0x33333333L;
+        b = (b | b << 1) & 0x55555555L;
+        return b;
+    }
+
+    /**
+     * Compute the bounds of a range of leaves from their circles.
+     * @param from The first leaf of the range.
+     * @param to The leaf after the last one of the range.
+     */
+    private void bound(int from, int to){
+        for (int i = from; i < to; i++){
+            double x0 = Double.POSITIVE_INFINITY;
+            double y0 = Double.POSITIVE_INFINITY;
+            double x1 = Double.NEGATIVE_INFINITY;
+            double y1 = Double.NEGATIVE_INFINITY;
+            for (int e = FANOUT*i, end = Math.min(e + FANOUT, order.length);
+                    e < end; e++){
+                int c = order[e];
+                double x = circles.getX(c), y = circles.getY(c);
+                double r = circles.getRadius(c);
+                x0 = Math.min(x0, x - r);
+                y0 = Math.min(y0, y - r);
+                x1 = Math.max(x1, x + r);
+                y1 = Math.max(y1, y + r);
+            }
+            minX[0][i] = x0;
+            minY[0][i] = y0;
+            maxX[0][i] = x1;
+            maxY[0][i] = y1;
+        }
+    }
+
+    /**
+     * Compute the bounds of the nodes of a level from the nodes below.
+     * @param l The level, above 0.
+     */
+    private void bound(int l){
+        double[] ex0 = minX[l-1], ey0 = minY[l-1];
+        double[] ex1 = maxX[l-1], ey1 = maxY[l-1];
+        for (int i = 0; i < minX[l].length; i++){
+            double x0 = Double.POSITIVE_INFINITY;
+            double y0 = Double.POSITIVE_INFINITY;
+            double x1 = Double.NEGATIVE_INFINITY;
+            double y1 = Double.NEGATIVE_INFINITY;
+            for (int e = FANOUT*i, end = Math.min(e + FANOUT, ex0.length);
+                    e < end; e++){
+                x0 = Math.min(x0, ex0[e]);
+                y0 = Math.min(y0, ey0[e]);
+                x1 = Math.max(x1, ex1[e]);
+                y1 = Math.max(y1, ey1[e]);
+            }
+            minX[l][i] = x0;
+            minY[l][i] = y0;
+            maxX[l][i] = x1;
+            maxY[l][i] = y1;
+        }
+    }
+
+    /**
+     * Get the indexed circles.
+     * @return The circles.
+     */
+    public SoddyCircles getCircles(){
+        return circles;
+    }
+
+    /**
+     * Find the innermost circle containing a point - the one of the largest
+     * curvature, as in a gasket the circles of positive curvature do not
+     * overlap and the circles of negative curvature enclose them.
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The index of the circle, -1 if no circle contains the point.
+     */
+    public int find(double x, double y){
+        int found = -1;
+        double k = Double.NEGATIVE_INFINITY;
+
+        int top = minX.length - 1;
+        int[] stack = new int[2 * FANOUT * (top + 1)];
+        int sp = 0;
+        for (int i = 0; i < minX[top].length; i++){
+            stack[sp++] = top;
+            stack[sp++] = i;
+        }
+        while (sp > 0){
+            int i = stack[--sp], l = stack[--sp];
+            if (x < minX[l][i] || x > maxX[l][i]
+                    || y < minY[l][i] || y > maxY[l][i]) continue;
+            int end = Math.min(FANOUT*(i+1),
+                    l == 0 ? order.length : minX[l-1].length);
+            for (int e = FANOUT*i; e < end; e++){
+                if (l > 0){
+                    stack[sp++] = l - 1;
+                    stack[sp++] = e;
+                } else if (circles.getK(order[e]) > k
+                        && this.contains(order[e], x, y)){
+                    found = order[e];
+                    k = circles.getK(found);
+                }
+            }
+        }
+        if (found >= 0) return found;
+
+        /* The smallest of the enclosing circles - the least curvature. */
+        k = 0;
+        for (int o : outer){
+            if (circles.getK(o) < k && this.contains(o, x, y)){
+                found = o;
+                k = circles.getK(o);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Find the circles intersecting a rectangle.
+     * @param r The rectangle.
+     * @return The indices of the circles, in no particular order.
+     */
+    public int[] intersect(Rectangle2D r){
+        double rx0 = r.getMinX(), ry0 = r.getMinY();
+        double rx1 = r.getMaxX(), ry1 = r.getMaxY();
+        int[] found = new int[FANOUT];
+        int count = 0;
+
+        int top = minX.length - 1;
+        int[] stack = new int[2 * FANOUT * (top + 1)];
+        int sp = 0;
+        for (int i = 0; i < minX[top].length; i++){
+            stack[sp++] = top;
+            stack[sp++] = i;
+        }
+        while (sp > 0){
+            int i = stack[--sp], l = stack[--sp];
+            if (rx1 < minX[l][i] || rx0 > maxX[l][i]
+                    || ry1 < minY[l][i] || ry0 > maxY[l][i]) continue;
+            int end = Math.min(FANOUT*(i+1),
+                    l == 0 ? order.length : minX[l-1].length);
+            for (int e = FANOUT*i; e < end; e++){
+                if (l > 0){
+                    stack[sp++] = l - 1;
+                    stack[sp++] = e;
+                } else if (this.intersects(order[e], rx0, ry0, rx1, ry1)){
+                    if (count == found.length)
+                        found = Arrays.copyOf(found, count * 2);
+                    found[count++] = order[e];
+                }
+            }
+        }
+
+        for (int o : outer){
+            if (circles.getK(o) < 0 && this.intersects(o, rx0, ry0, rx1, ry1)){
+                if (count == found.length)
+                    found = Arrays.copyOf(found, count * 2);
+                found[count++] = o;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Check whether the disk of a circle contains a point.
+     * @param i The index of the circle.
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return Whether the point is in the disk.
+     */
+    private boolean contains(int i, double x, double y){
+        double dx = x - circles.getX(i), dy = y - circles.getY(i);
+        double r = circles.getRadius(i);
+        return dx*dx + dy*dy <= r*r;
+    }
+
+    /**
+     * Check whether the disk of a circle intersects a rectangle.
+     * @param i The index of the circle.
+     * @param x0 The least x of the rectangle.
+     * @param y0 The least y of the rectangle.
+     * @param x1 The greatest x of the rectangle.
+     * @param y1 The greatest y of the rectangle.
+     * @return Whether the disk and the rectangle intersect.
+     */
+    private boolean intersects(int i, double x0, double y0, double x1,
+            double y1){
+        double x = circles.getX(i), y = circles.getY(i);
+        double r = circles.getRadius(i);
+        double dx = Math.max(Math.max(x0 - x, x - x1), 0);
+        double dy = Math.max(Math.max(y0 - y, y - y1), 0);
+        return dx*dx + dy*dy <= r*r;
+    }
+
+    /**
+     * Get the number of circles indexed.
+     * @return The number of circles.
+     */
+    public int size(){
+        return circles.size();
+    }
+
+    /**
+     * Fork/join task computing the keys of a range of circles.
+     */
+    private class Keys extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final long[] keys;
+        final int from, to;
+        final double x0, y0, sx, sy;
+
+        Keys(long[] keys, int from, int to, double x0, double y0, double sx,
+                double sy){
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.sx = sx;
+            this.sy = sy;
+        }
+
+        @Override
+        protected void compute(){
+            if (to - from <= THRESHOLD){
+                encode(keys, from, to, x0, y0, sx, sy);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Keys(keys, from, mid, x0, y0, sx, sy),
+                        new Keys(keys, mid, to, x0, y0, sx, sy));
+            }
+        }
+    }
+
+    /**
+     * Fork/join task computing the bounds of a range of leaves.
+     */
+    private class Leaves extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final int from, to;
+
+        Leaves(int from, int to){
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if (to - from <= THRESHOLD / FANOUT){
+                bound(from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Leaves(from, mid), new Leaves(mid, to));
+            }
+        }
+    }
+}
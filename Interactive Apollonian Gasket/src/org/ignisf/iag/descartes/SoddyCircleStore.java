@@ -0,0 +1,277 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.descartes;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact struct-of-arrays storage of Soddy circles.
+ *
+ * Each circle takes 25 bytes - three doubles for the center and curvature
+ * and a byte for the level - and a scan over the whole store walks four
+ * flat arrays instead of chasing a pointer per circle.
+ * @author Petko Bordjukov
+ */
+public class SoddyCircleStore implements SoddyCircles {
+
+    /**
+     * The largest capacity a store can have.
+     */
+    public static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    /**
+     * The x coordinates of the centers.
+     */
+    double[] x;
+
+    /**
+     * The y coordinates of the centers.
+     */
+    double[] y;
+
+    /**
+     * The curvatures.
+     */
+    double[] k;
+
+    /**
+     * The levels.
+     */
+    byte[] l;
+
+    /**
+     * The low parts of the centers and curvatures in extended precision,
+     * null unless the store is extended. x, y and k hold the high parts -
+     * the values rounded to doubles.
+     * @see DoubleDouble
+     */
+    double[] xl, yl, kl;
+
+    /**
+     * The number of circles in the store.
+     */
+    int size;
+
+    /**
+     * Create an empty store able to hold the given number of circles without
+     * growing.
+     * @param capacity The initial capacity.
+     */
+    public SoddyCircleStore(int capacity){
+        if (capacity < 0 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.k = new double[capacity];
+        this.l = new byte[capacity];
+    }
+
+    /**
+     * Make sure the store can hold at least the given number of circles.
+     * @param capacity The minimum capacity.
+     */
+    public void ensureCapacity(int capacity){
+        if (capacity < 0 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+
+        if (capacity > x.length) {
+            int c = (int) Math.min(MAX_CAPACITY,
+                    Math.max(capacity, x.length + (long) (x.length >> 1)));
+            x = Arrays.copyOf(x, c);
+            y = Arrays.copyOf(y, c);
+            k = Arrays.copyOf(k, c);
+            l = Arrays.copyOf(l, c);
+            if (xl != null) {
+                xl = Arrays.copyOf(xl, c);
+                yl = Arrays.copyOf(yl, c);
+                kl = Arrays.copyOf(kl, c);
+            }
+        }
+    }
+
+    /**
+     * Keep the circles in extended precision from now on. The circles
+     * already in the store get no low parts.
+     */
+    void extend(){
+        if (xl != null) return;
+        xl = new double[x.length];
+        yl = new double[x.length];
+        kl = new double[x.length];
+    }
+
+    /**
+     * Check whether the circles are kept in extended precision.
+     * @return Whether the store is extended.
+     */
+    public boolean isExtended(){
+        return xl != null;
+    }
+
+    /**
+     * Append a circle to the store.
+     * @param x The x coordinate of the center.
+     * @param y The y coordinate of the center.
+     * @param k The curvature.
+     * @param l The level.
+     * @return The index of the circle.
+     */
+    public int add(double x, double y, double k, int l){
+        if (size == this.x.length) ensureCapacity(size + 1);
+
+        this.x[size] = x;
+        this.y[size] = y;
+        this.k[size] = k;
+        this.l[size] = (byte) l;
+        if (xl != null) xl[size] = yl[size] = kl[size] = 0d;
+        return size++;
+    }
+
+    /**
+     * Append a circle to the store.
+     * @param c The circle.
+     * @return The index of the circle.
+     */
+    public int add(SoddyCircle c){
+        return this.add(c.x, c.y, c.k, c.l);
+    }
+
+    /**
+     * Get the memory the arrays of the store take, whatever its size.
+     * @return The memory in bytes.
+     */
+    public long getBytes(){
+        return (long) x.length * (xl != null ? 49 : 25);
+    }
+
+    /**
+     * Get the number of circles in the store.
+     * @return The number of circles.
+     */
+    @Override
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Get the x coordinate of the center of a circle.
+     * @param i The index of the circle.
+     * @return The x coordinate.
+     */
+    @Override
+    public double getX(int i){
+        return x[i];
+    }
+
+    /**
+     * Get the y coordinate of the center of a circle.
+     * @param i The index of the circle.
+     * @return The y coordinate.
+     */
+    @Override
+    public double getY(int i){
+        return y[i];
+    }
+
+    /**
+     * Get the curvature of a circle.
+     * @param i The index of the circle.
+     * @return The curvature.
+     */
+    @Override
+    public double getK(int i){
+        return k[i];
+    }
+
+    /**
+     * Get the level of a circle.
+     * @param i The index of the circle.
+     * @return The level.
+     */
+    @Override
+    public int getLevel(int i){
+        return l[i];
+    }
+
+    /**
+     * Get the radius of a circle.
+     * @param i The index of the circle.
+     * @return The radius - 1/|k|.
+     */
+    @Override
+    public double getRadius(int i){
+        return Math.abs(1d/k[i]);
+    }
+
+    /**
+     * Get a circle as a SoddyCircle. Allocates a new object on every call.
+     * @param i The index of the circle.
+     * @return The circle.
+     */
+    @Override
+    public SoddyCircle get(int i){
+        if (i >= size) throw new IndexOutOfBoundsException("Index: " + i);
+        return new SoddyCircle(x[i], y[i], k[i], l[i]);
+    }
+
+    /**
+     * Get the backing array of the x coordinates. Only the first size()
+     * elements are valid.
+     * @return The x coordinates.
+     */
+    public double[] getXs(){
+        return x;
+    }
+
+    /**
+     * Get the backing array of the y coordinates. Only the first size()
+     * elements are valid.
+     * @return The y coordinates.
+     */
+    public double[] getYs(){
+        return y;
+    }
+
+    /**
+     * Get the backing array of the curvatures. Only the first size()
+     * elements are valid.
+     * @return The curvatures.
+     */
+    public double[] getKs(){
+        return k;
+    }
+
+    /**
+     * Get the backing array of the levels. Only the first size() elements
+     * are valid.
+     * @return The levels.
+     */
+    public byte[] getLevels(){
+        return l;
+    }
+
+    /**
+     * Get a read-only list view of the store. The elements are created on
+     * access.
+     * @return The view.
+     */
+    @Override
+    public List<SoddyCircle> asList(){
+        return new AbstractList<SoddyCircle>() {
+            @Override
+            public SoddyCircle get(int i) {
+                return SoddyCircleStore.this.get(i);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
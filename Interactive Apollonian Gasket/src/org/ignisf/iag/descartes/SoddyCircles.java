@@ -0,0 +1,69 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.descartes;
+
+import java.util.List;
+
+/**
+ * Indexed read access to a set of Soddy circles, whatever holds them.
+ * @author Petko Bordjukov
+ */
+public interface SoddyCircles {
+
+    /**
+     * Get the number of circles.
+     * @return The number of circles.
+     */
+    int size();
+
+    /**
+     * Get the x coordinate of the center of a circle.
+     * @param i The index of the circle.
+     * @return The x coordinate.
+     */
+    double getX(int i);
+
+    /**
+     * Get the y coordinate of the center of a circle.
+     * @param i The index of the circle.
+     * @return The y coordinate.
+     */
+    double getY(int i);
+
+    /**
+     * Get the curvature of a circle.
+     * @param i The index of the circle.
+     * @return The curvature.
+     */
+    double getK(int i);
+
+    /**
+     * Get the level of a circle.
+     * @param i The index of the circle.
+     * @return The level.
+     */
+    int getLevel(int i);
+
+    /**
+     * Get the radius of a circle.
+     * @param i The index of the circle.
+     * @return The radius - 1/|k|.
+     */
+    double getRadius(int i);
+
+    /**
+     * Get a circle as a SoddyCircle. Allocates a new object on every call.
+     * @param i The index of the circle.
+     * @return The circle.
+     */
+    SoddyCircle get(int i);
+
+    /**
+     * Get a read-only list view of the circles. The elements are created on
+     * access.
+     * @return The view.
+     */
+    List<SoddyCircle> asList();
+}
@@ -5,6 +5,7 @@ package org.ignisf.iag.frontend;
 
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import math.geom2d.conic.Circle2D;
 import math.geom2d.line.Line2D;
@@ -72,10 +73,11 @@ public class CoordinateSystem {
     }
     
     /**
-     * Resize the coordinate system from the specified center.
-     * @param center
-     * @param level 
-     * @TODO
+     * Resize the coordinate system from the specified center, keeping the
+     * point under the center in place.
+     * @param center The center of the resize.
+     * @param level The relative change of the unit, e.g. 0.3 to enlarge it
+     * by 30%.
      */
     public void resize(Point2D center, double level){
         double x, y;
@@ -96,11 +98,28 @@ public class CoordinateSystem {
         this.setOrigin(new Point2D.Double(x, y));
     }
     
+    /**
+     * Move the origin of the coordinate system.
+     * @param dx The distance along the x axis.
+     * @param dy The distance along the y axis.
+     */
     public void move(double dx, double dy){
         this.setOrigin(new Point2D.Double(this.origin.getX()+dx,
                 this.origin.getY()+dy));
     }
     
+    /**
+     * Get the transform from the coordinate system to the one it is drawn
+     * in - a scale by the unit followed by a translation to the origin.
+     * @return The transform.
+     */
+    public AffineTransform getTransform(){
+        AffineTransform t = AffineTransform.getTranslateInstance(
+                origin.getX(), origin.getY());
+        t.scale(unit, unit);
+        return t;
+    }
+
     /**
      * Drawing the coordinate system in the specified bounds.
      * 
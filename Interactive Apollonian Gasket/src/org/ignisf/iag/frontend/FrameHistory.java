@@ -0,0 +1,117 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.frontend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rolling history of the metrics of the last frames. Tells which depth is
+ * still interactive on the machine at hand. Safe to use from any thread.
+ * @author ignisf
+ */
+public class FrameHistory {
+
+    /**
+     * The default number of frames kept.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * The frames, a ring buffer.
+     */
+    private final FrameMetrics[] frames;
+
+    /**
+     * The index of the next frame in the ring buffer.
+     */
+    private int next;
+
+    /**
+     * The number of frames kept.
+     */
+    private int size;
+
+    /**
+     * Create a history of DEFAULT_CAPACITY frames.
+     */
+    public FrameHistory(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a history.
+     * @param capacity The number of frames kept.
+     */
+    public FrameHistory(int capacity){
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        this.frames = new FrameMetrics[capacity];
+    }
+
+    /**
+     * Add a frame, dropping the oldest one when full.
+     * @param frame The metrics of the frame.
+     */
+    public synchronized void add(FrameMetrics frame){
+        frames[next] = frame;
+        next = (next + 1) % frames.length;
+        if (size < frames.length) size++;
+    }
+
+    /**
+     * Get the frames kept.
+     * @return The frames, oldest first.
+     */
+    public synchronized List<FrameMetrics> getFrames(){
+        List<FrameMetrics> l = new ArrayList<FrameMetrics>(size);
+        for (int i = size; i > 0; i--)
+            l.add(frames[(next - i + frames.length) % frames.length]);
+        return l;
+    }
+
+    /**
+     * Get the last frame.
+     * @return The frame, null if there is none.
+     */
+    public synchronized FrameMetrics getLast(){
+        return size == 0 ? null
+                : frames[(next - 1 + frames.length) % frames.length];
+    }
+
+    /**
+     * Get the mean time spent per tile on the frames of a level.
+     * @param level The level.
+     * @return The time in nanoseconds, NaN if there is no frame of the level.
+     */
+    public synchronized double getMeanTileTime(int level){
+        long time = 0, tiles = 0;
+        for (int i = 0; i < size; i++) {
+            FrameMetrics f = frames[i];
+            if (f.getLevel() == level) {
+                time += f.getTime();
+                tiles += f.getTiles();
+            }
+        }
+        return tiles == 0 ? Double.NaN : (double) time / tiles;
+    }
+
+    /**
+     * Get the number of frames kept.
+     * @return The number of frames.
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    /**
+     * Drop all frames.
+     */
+    public synchronized void clear(){
+        Arrays.fill(frames, null);
+        next = size = 0;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.frontend;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * What rendering a frame of the gasket cost.
+ * @author ignisf
+ */
+public class FrameMetrics {
+
+    /**
+     * The maximum level of the gasket.
+     */
+    private final int level;
+
+    /**
+     * The number of tiles rendered.
+     */
+    private final int tiles;
+
+    /**
+     * The number of circles generated.
+     */
+    private final long circles;
+
+    /**
+     * The time spent generating, in nanoseconds.
+     */
+    private final long generationTime;
+
+    /**
+     * The time spent rasterizing, in nanoseconds.
+     */
+    private final long rasterizationTime;
+
+    /**
+     * The bytes allocated by the rendering thread, -1 if unknown.
+     */
+    private final long allocatedBytes;
+
+    /**
+     * When the frame was completed, in milliseconds since the epoch.
+     */
+    private final long timestamp;
+
+    /**
+     * Create the metrics of a frame completed now.
+     * @param level The maximum level of the gasket.
+     * @param tiles The number of tiles rendered.
+     * @param circles The number of circles generated.
+     * @param generationTime The time spent generating, in nanoseconds.
+     * @param rasterizationTime The time spent rasterizing, in nanoseconds.
+     * @param allocatedBytes The bytes allocated, -1 if unknown.
+     */
+    public FrameMetrics(int level, int tiles, long circles,
+            long generationTime, long rasterizationTime, long allocatedBytes){
+        this.level = level;
+        this.tiles = tiles;
+        this.circles = circles;
+        this.generationTime = generationTime;
+        this.rasterizationTime = rasterizationTime;
+        this.allocatedBytes = allocatedBytes;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the bytes allocated so far by the current thread.
+     * @return The bytes, -1 if the JVM does not count them.
+     */
+    public static long allocatedBytes(){
+        ThreadMXBean t = ManagementFactory.getThreadMXBean();
+        if (t instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean s =
+                    (com.sun.management.ThreadMXBean) t;
+            if (s.isThreadAllocatedMemorySupported()
+                    && s.isThreadAllocatedMemoryEnabled())
+                return s.getThreadAllocatedBytes(
+                        Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Get the maximum level of the gasket.
+     * @return The level.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Get the number of tiles rendered.
+     * @return The number of tiles.
+     */
+    public int getTiles() {
+        return tiles;
+    }
+
+    /**
+     * Get the number of circles generated.
+     * @return The number of circles.
+     */
+    public long getCircles() {
+        return circles;
+    }
+
+    /**
+     * Get the time spent generating.
+     * @return The time in nanoseconds.
+     */
+    public long getGenerationTime() {
+        return generationTime;
+    }
+
+    /**
+     * Get the time spent rasterizing.
+     * @return The time in nanoseconds.
+     */
+    public long getRasterizationTime() {
+        return rasterizationTime;
+    }
+
+    /**
+     * Get the time spent on the frame.
+     * @return The time spent generating and rasterizing, in nanoseconds.
+     */
+    public long getTime() {
+        return generationTime + rasterizationTime;
+    }
+
+    /**
+     * Get the bytes allocated by the rendering thread.
+     * @return The bytes, -1 if unknown.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Get when the frame was completed.
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        String s = String.format(Locale.ROOT, "Level %d: %d circles in %d"
+                + " tiles, generated in %.1f ms, rasterized in %.1f ms",
+                level, circles, tiles, generationTime / 1e6,
+                rasterizationTime / 1e6);
+        if (allocatedBytes >= 0)
+            s += String.format(Locale.ROOT, ", %.1f MB allocated",
+                    allocatedBytes / 1048576d);
+        return s;
+    }
+}
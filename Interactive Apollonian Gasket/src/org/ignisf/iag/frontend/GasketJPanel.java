@@ -7,12 +7,19 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import javax.swing.JPanel;
 import math.geom2d.Point2D;
 import math.geom2d.conic.Circle2D;
@@ -25,7 +32,6 @@ import math.geom2d.line.LineSegment2D;
 import math.geom2d.line.Ray2D;
 import math.geom2d.line.StraightLine2D;
 import org.ignisf.iag.IAGView;
-import org.ignisf.iag.descartes.ApollonianSet;
 import org.ignisf.iag.descartes.SoddyCircle;
 
 /**
@@ -81,6 +87,74 @@ public class GasketJPanel extends JPanel {
     
     public int level = 5;
     
+    /**
+     * The default radius in pixels below which circles are not refined
+     * further.
+     */
+    public static final double MIN_RADIUS = 0.5;
+
+    /**
+     * The radius in pixels below which circles are not refined further and
+     * are plotted as pixels instead of being stroked.
+     */
+    protected double minRadius = MIN_RADIUS;
+
+    /**
+     * The memory the rendered tiles may take, in bytes.
+     */
+    public static final long TILE_CACHE_BYTES = 64L << 20;
+
+    /**
+     * The memory the sets of the tiles may take, in bytes.
+     */
+    public static final long SET_CACHE_BYTES = 128L << 20;
+
+    /**
+     * The generators as they were when the third one was set. The tiles
+     * are rendered from them, scaled by the zoom.
+     */
+    protected SoddyCircle2D[] gasket;
+
+    /**
+     * The view of the gasket - the position of its origin on the panel and
+     * its unit in pixels, i.e. the zoom. The generators and the gasket stay
+     * in the coordinates they were entered in, which are those of the panel
+     * as the view is reset while they are entered, and panning and zooming
+     * only change the view.
+     */
+    protected CoordinateSystem view = new CoordinateSystem(new Point2D(), 1);
+
+    /**
+     * The zoom of the last frame drawn in full. Until the tiles of a new
+     * zoom are rendered, its tiles are drawn scaled in their place.
+     */
+    protected double drawnScale = 1;
+
+    /**
+     * The rendered tiles.
+     */
+    protected TileCache tiles = new TileCache(TILE_CACHE_BYTES);
+
+    /**
+     * The sets the tiles were rendered from, kept for changes of the level.
+     */
+    protected TileSetCache sets = new TileSetCache(SET_CACHE_BYTES);
+
+    /**
+     * What the last frames cost.
+     */
+    protected final FrameHistory frameHistory = new FrameHistory();
+
+    /**
+     * Finds the circles under the mouse, null until built.
+     */
+    protected GasketPicker picker;
+
+    /**
+     * Whether the mouse asked for a picker since the last frame.
+     */
+    protected boolean pickerWanted;
+    
     /**
      * The current mouse position.
      */
@@ -111,6 +185,59 @@ public class GasketJPanel extends JPanel {
         this.needRepaint = needRepaint;
         propertyChangeSupport.firePropertyChange(PROP_NEEDREPAINT, oldNeedRepaint, needRepaint);
     }
+
+    /**
+     * The number of the frame requested, incremented whenever the picture
+     * asked for changes and superseding the frame being rendered.
+     */
+    protected long frame;
+    public static final String PROP_FRAME = "frame";
+
+    /**
+     * Get the value of frame
+     *
+     * @return the value of frame
+     */
+    public long getFrame() {
+        return frame;
+    }
+
+    /**
+     * Request a new frame.
+     */
+    protected void nextFrame() {
+        pickerWanted = false;
+        long oldFrame = this.frame;
+        this.frame = oldFrame + 1;
+        propertyChangeSupport.firePropertyChange(PROP_FRAME, oldFrame, frame);
+    }
+
+    /**
+     * The circle selected, in the coordinates of the gasket.
+     */
+    protected SoddyCircle selection;
+    public static final String PROP_SELECTION = "selection";
+
+    /**
+     * Get the value of selection
+     *
+     * @return the value of selection, null if no circle is selected
+     */
+    public SoddyCircle getSelection() {
+        return selection;
+    }
+
+    /**
+     * Set the value of selection
+     *
+     * @param selection new value of selection, null for none
+     */
+    public void setSelection(SoddyCircle selection) {
+        SoddyCircle oldSelection = this.selection;
+        this.selection = selection;
+        propertyChangeSupport.firePropertyChange(PROP_SELECTION, oldSelection, selection);
+        repaint();
+    }
     private PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
 
     /**
@@ -145,35 +272,40 @@ public class GasketJPanel extends JPanel {
         //TODO call repaint.
     }
     
+    /**
+     * Pan the gasket. Only the view changes - the tiles rendered and their
+     * sets stay valid.
+     * @param x The distance along the x axis in pixels.
+     * @param y The distance along the y axis in pixels.
+     */
     public void shift(double x, double y){
-        if(center3 != null) {
-            center1.setLocation(center1.x + x, center1.y + y);
-            if(generators[0]!=null) generators[0] = new SoddyCircle2D(center1, generators[0].curvature, generators[0].level);
-            center2.setLocation(center2.x + x, center2.y + y);
-            if(generators[1]!=null) generators[1] = new SoddyCircle2D(center2, generators[1].curvature, generators[1].level);
-            center3.setLocation(center3.x + x, center3.y + y);
-            if(generators[2]!=null) generators[2] = new SoddyCircle2D(center3, generators[2].curvature, generators[2].level);
-        }
+        if (gasket == null) return;
+        view.move(x, y);
+        nextFrame();
     }
     
+    /**
+     * Zoom the gasket around the center of the panel. Only the view
+     * changes, the tiles of the new zoom are rendered from the same
+     * generators.
+     * @param by The factor to zoom by.
+     */
     public void zoom(double by){
-        double d1 = this.getWidth()/2d;
-        double d2 = this.getHeight()/2d;
-        this.center1.x = (this.center1.x-d1)*by+d1;
-        this.center1.y = (this.center1.y-d2)*by+d2;
-        this.center2.x = (this.center2.x-d1)*by+d1;
-        this.center2.y = (this.center2.y-d2)*by+d2;
-        this.center3.x = (this.center3.x-d1)*by+d1;
-        this.center3.y = (this.center3.y-d2)*by+d2;
-        radius1=radius1*by;
-        radius2=radius2*by;
-        radius3=radius3*by;
-        if(generators[0]!=null) generators[0] = new SoddyCircle2D(center1, generators[0].curvature/by, generators[0].level);
-        if(generators[1]!=null) generators[1] = new SoddyCircle2D(center2, generators[1].curvature/by, generators[1].level);
-        if(generators[2]!=null) generators[2] = new SoddyCircle2D(center3, generators[2].curvature/by, generators[2].level);
+        if (gasket == null) return;
+        view.resize(new Point2D(this.getWidth()/2d, this.getHeight()/2d),
+                by - 1);
+        nextFrame();
     }
     
     public void reset(){
+        gasket = null;
+        picker = null;
+        pickerWanted = false;
+        view = new CoordinateSystem(new Point2D(), 1);
+        drawnScale = 1;
+        setSelection(null);
+        setToolTipText(null);
+        invalidateGasket();
         generators = new SoddyCircle2D[3];
         center1 = center2 = center3 = null;
         radius1=radius2=radius3 = Double.NaN;
@@ -188,6 +320,239 @@ public class GasketJPanel extends JPanel {
         return this.grid;
     }
     
+    /**
+     * Get the value of level
+     *
+     * @return the value of level
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Set the value of level
+     *
+     * @param level new value of level
+     */
+    public void setLevel(int level) {
+        this.level = level;
+        nextFrame();
+        repaint();
+    }
+
+    /**
+     * Get the value of minRadius
+     *
+     * @return the value of minRadius
+     */
+    public double getMinRadius() {
+        return minRadius;
+    }
+
+    /**
+     * Set the value of minRadius
+     *
+     * @param minRadius new value of minRadius
+     */
+    public void setMinRadius(double minRadius) {
+        this.minRadius = minRadius;
+        nextFrame();
+        repaint();
+    }
+
+    /**
+     * Get the zoom of the panel relative to the gasket.
+     * @return The zoom.
+     */
+    public double getScale(){
+        return view.getUnit();
+    }
+
+    /**
+     * Get the transform from the coordinates of the gasket to those of the
+     * panel. The origin is rounded to whole pixels like the tiles are, so
+     * what is drawn over them lines up.
+     * @return The transform.
+     */
+    public AffineTransform getViewTransform(){
+        java.awt.geom.Point2D o = view.getOrigin();
+        AffineTransform t = AffineTransform.getTranslateInstance(
+                Math.round(o.getX()) - o.getX(),
+                Math.round(o.getY()) - o.getY());
+        t.concatenate(view.getTransform());
+        return t;
+    }
+
+    /**
+     * Get the position of the gasket on the panel, in whole pixels.
+     * @return The origin of the view, rounded.
+     */
+    protected Point2D getViewOrigin(){
+        java.awt.geom.Point2D o = view.getOrigin();
+        return new Point2D(Math.round(o.getX()), Math.round(o.getY()));
+    }
+
+    /**
+     * Drop the rendered tiles and their sets so that the gasket is rendered
+     * anew.
+     */
+    public void invalidateGasket(){
+        this.tiles.clear();
+        this.sets.clear(gasket);
+        nextFrame();
+    }
+
+    /**
+     * Get the keys of the tiles covering the panel.
+     * @return The keys.
+     */
+    protected List<TileCache.Key> getVisibleTiles(){
+        return this.getVisibleTiles(this.getScale());
+    }
+
+    /**
+     * Get the keys of the tiles of a zoom covering the panel when scaled to
+     * the zoom of the panel.
+     * @param scale The zoom of the tiles.
+     * @return The keys.
+     */
+    protected List<TileCache.Key> getVisibleTiles(double scale){
+        List<TileCache.Key> keys = new ArrayList<TileCache.Key>();
+        if (gasket == null) return keys;
+
+        Point2D o = this.getViewOrigin();
+        double f = scale / this.getScale();
+        int t = TileCache.TILE_SIZE;
+        long x0 = (long) Math.floor(-o.x * f / t);
+        long x1 = (long) Math.floor((this.getWidth() - 1 - o.x) * f / t);
+        long y0 = (long) Math.floor(-o.y * f / t);
+        long y1 = (long) Math.floor((this.getHeight() - 1 - o.y) * f / t);
+        for (long y = y0; y <= y1; y++)
+            for (long x = x0; x <= x1; x++)
+                keys.add(new TileCache.Key(scale, level, minRadius, x, y));
+        return keys;
+    }
+
+    /**
+     * Check whether all the tiles covering the panel are rendered.
+     * @return Whether the frame is valid.
+     */
+    public boolean isFrameValid(){
+        for (TileCache.Key key : this.getVisibleTiles())
+            if (!tiles.contains(key)) return false;
+        return true;
+    }
+
+    /**
+     * Check whether a renderer created by createRenderer() still renders
+     * tiles of the current frame, rather than of one superseded since.
+     * @param r The renderer.
+     * @return Whether the tiles it renders are still wanted.
+     */
+    public boolean isCurrent(TileRenderer r){
+        return r.getSource() == gasket
+                && this.getVisibleTiles().containsAll(r.getTiles());
+    }
+
+    /**
+     * Get the part of the panel shown, in the coordinates of the tiles.
+     * @return The part shown.
+     */
+    protected Rectangle2D getVisibleRegion(){
+        Point2D o = this.getViewOrigin();
+        return new Rectangle2D.Double(-o.x, -o.y, this.getWidth(),
+                this.getHeight());
+    }
+
+    /**
+     * Check whether the picker covers the gasket shown.
+     * @return Whether the circles under the mouse can be found.
+     */
+    public boolean isPickable(){
+        return picker != null && picker.covers(gasket, this.getScale(),
+                level, minRadius, this.getVisibleRegion());
+    }
+
+    /**
+     * Create a picker of the gasket shown, to be built off the event
+     * dispatch thread. A picker generates a gasket of its own, so it is
+     * built only when the mouse moves over a gasket the current one does
+     * not cover - after the gasket, its level or zoom change or the panel
+     * is panned out of its region.
+     * @return The picker, null if the current one will do or the mouse has
+     * not asked for one.
+     */
+    public GasketPicker createPicker(){
+        if (gasket == null || !pickerWanted || this.isPickable()) return null;
+        return new GasketPicker(gasket, this.getScale(), level, minRadius,
+                this.getVisibleRegion());
+    }
+
+    /**
+     * Use a picker created by createPicker() and built. Pickers of
+     * generators that have been replaced since are dropped.
+     * @param p The picker.
+     */
+    public void setPicker(GasketPicker p){
+        if (p.getSource() == gasket && p.isBuilt()) {
+            picker = p;
+            pickerWanted = false;
+        }
+    }
+
+    /**
+     * Find the innermost circle under a point of the panel.
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The circle in the coordinates of the gasket, null if there is
+     * none or it is not known yet.
+     */
+    public SoddyCircle pick(double x, double y){
+        if (!this.isPickable()) return null;
+        Point2D o = this.getViewOrigin();
+        SoddyCircle c = picker.find(x - o.x, y - o.y);
+        if (c == null) return null;
+        double scale = this.getScale();
+        return new SoddyCircle(c.x / scale, c.y / scale, c.k * scale, c.l);
+    }
+
+    /**
+     * Get the history of what the frames cost.
+     * @return The history.
+     */
+    public FrameHistory getFrameHistory() {
+        return frameHistory;
+    }
+
+    /**
+     * Create a renderer of the tiles covering the panel that are not
+     * rendered yet, to be run off the event dispatch thread.
+     * @return The renderer, null if there is nothing to render.
+     */
+    public TileRenderer createRenderer(){
+        List<TileCache.Key> missing = new ArrayList<TileCache.Key>();
+        for (TileCache.Key key : this.getVisibleTiles())
+            if (!tiles.contains(key)) missing.add(key);
+        if (missing.isEmpty()) return null;
+        return new TileRenderer(gasket, missing, sets);
+    }
+
+    /**
+     * Add tiles rendered by a renderer created by createRenderer() and
+     * record what they cost. Tiles of generators that have been replaced
+     * since are dropped.
+     * @param r The renderer.
+     * @param images The tiles.
+     */
+    public void addTiles(TileRenderer r,
+            Map<TileCache.Key, BufferedImage> images){
+        if (r.getSource() == gasket) {
+            tiles.putAll(images);
+            if (r.getMetrics() != null) frameHistory.add(r.getMetrics());
+        }
+        repaint();
+    }
+
     public GasketJPanel(IAGView v){
         this.addListeners();
         this.v=v;
@@ -223,32 +588,42 @@ public class GasketJPanel extends JPanel {
         if (center3 == null) new Circle2D(this.mousePosition, 5).draw(g2d);
         
         /**
-         * Drawing the generators.
+         * Drawing the generators, through the view.
          */
+        AffineTransform vt = this.getViewTransform();
+        double unit = this.getScale();
         if (center1 != null) {
-            new GeneratorCenter(center1, g2d).draw();
+            Point2D c1 = new Point2D(vt.transform(center1, null));
+            new GeneratorCenter(c1, g2d).draw();
             if (Double.isNaN(radius1)){
-                new GeneratorMockup(center1,
-                        center1.distance(this.mousePosition), g2d).draw();
+                new GeneratorMockup(c1,
+                        c1.distance(this.mousePosition), g2d).draw();
             } else {
-                new Generator(center1, radius1, g2d).draw();
+                new Generator(c1, radius1 * unit, g2d).draw();
                 if (center2 != null) {
-                    new Generator(center2, radius2, g2d).draw();
-                    new GeneratorCenter(center2, g2d).draw();
+                    Point2D c2 = new Point2D(vt.transform(center2, null));
+                    new Generator(c2, radius2 * unit, g2d).draw();
+                    new GeneratorCenter(c2, g2d).draw();
                     if (center3 != null){
-                        new Generator(center3, radius3, g2d).draw();
-                        new GeneratorCenter(center3, g2d).draw();
+                        Point2D c3 =
+                                new Point2D(vt.transform(center3, null));
+                        new Generator(c3, radius3 * unit, g2d).draw();
+                        new GeneratorCenter(c3, g2d).draw();
                         
-                        g2d.setColor(new Color(0, 0, 0, 255));
-                        g2d.setStroke(new BasicStroke(0.3f));
-                        ApollonianSet aps = new ApollonianSet(
-                                generators[0].getSoddyCircle(),
-                                generators[1].getSoddyCircle(),
-                                generators[2].getSoddyCircle(), this.level);
-                        java.util.Iterator<SoddyCircle> sc = aps.getSet().iterator();
-                        while(sc.hasNext()){
-                            new SoddyCircle2D(sc.next()).draw(g2d);
-                        }
+                        /*
+                         * The gasket is rendered in the background - draw
+                         * the rendered tiles and ask for the missing ones.
+                         */
+                        boolean missing = false;
+                        for (TileCache.Key key : this.getVisibleTiles())
+                            if (!tiles.contains(key)) missing = true;
+                        if (missing && drawnScale != unit)
+                            this.drawTiles(g2d, drawnScale);
+                        this.drawTiles(g2d, unit);
+                        if (missing) this.setNeedRepaint(true);
+                        else drawnScale = unit;
+
+                        if (selection != null) new Selection(g2d).draw();
                         
                     } else {
                         new GeneratorMockup(mousePosition,
@@ -264,6 +639,27 @@ public class GasketJPanel extends JPanel {
         }
     }
     
+    /**
+     * Draw the rendered tiles of a zoom covering the panel, scaled to the
+     * zoom of the panel.
+     * @param g2d Graphics context.
+     * @param scale The zoom of the tiles.
+     */
+    protected void drawTiles(Graphics2D g2d, double scale){
+        Point2D o = this.getViewOrigin();
+        for (TileCache.Key key : this.getVisibleTiles(scale)) {
+            BufferedImage tile = tiles.get(key);
+            if (tile == null) continue;
+
+            /* From the tile to the gasket at its zoom, then to the panel. */
+            AffineTransform t = AffineTransform.getTranslateInstance(o.x, o.y);
+            t.scale(this.getScale() / scale, this.getScale() / scale);
+            t.translate((double) key.x * TileCache.TILE_SIZE,
+                    (double) key.y * TileCache.TILE_SIZE);
+            g2d.drawImage(tile, t, null);
+        }
+    }
+
     public void clear(java.awt.Graphics g){
         super.paintComponent(g);
     }
@@ -485,6 +881,11 @@ public class GasketJPanel extends JPanel {
                 center3 = mousePosition;
                 radius3 = center3.distance(center2) - radius2;
                 generators[2] = new SoddyCircle2D(center3, 1/radius3, -1);
+                gasket = generators.clone();
+                setSelection(null);
+                view = new CoordinateSystem(new Point2D(), 1);
+                drawnScale = 1;
+                invalidateGasket();
             }
             addListeners();
             repaint();
@@ -578,14 +979,13 @@ public class GasketJPanel extends JPanel {
         public void mousePressed(MouseEvent e) {
             start = end = new Point2D(e.getPoint());
             startLevel=level;
-            level=3;
+            setLevel(3);
 
         }
 
         public void mouseReleased(MouseEvent e) {
             //start = end = new Point2D();
-            level = startLevel;
-            repaint();
+            setLevel(startLevel);
         }
         
         public void mouseDragged(MouseEvent e) {
@@ -601,6 +1001,31 @@ public class GasketJPanel extends JPanel {
 
         public void mouseMoved(MouseEvent e) {
             start = end = new Point2D(e.getPoint());
+
+            /*
+             * The picker is built only on demand - ask for it if stale,
+             * unless there is no gasket to pick from yet.
+             */
+            if (!isPickable()) {
+                setToolTipText(null);
+                if (gasket != null) {
+                    pickerWanted = true;
+                    setNeedRepaint(true);
+                }
+                return;
+            }
+            SoddyCircle c = pick(e.getX(), e.getY());
+            setToolTipText(c == null ? null : String.format(Locale.ROOT,
+                    "Curvature %.6g, level %d", c.k, c.l));
+        }
+
+        @Override
+        public void mouseClicked(MouseEvent e) {
+            if (e.getButton() == MouseEvent.BUTTON1) {
+                setSelection(pick(e.getX(), e.getY()));
+            } else if (e.getButton() == MouseEvent.BUTTON3) {
+                setSelection(null);
+            }
         }
         
     }
@@ -636,6 +1061,25 @@ public class GasketJPanel extends JPanel {
         }
     }
     
+    /**
+     * The outline of the circle selected.
+     */
+    private class Selection extends Circle2D {
+        Graphics2D g2d;
+        public Selection(Graphics2D g2d){
+            super(new Point2D(getViewTransform().transform(
+                    new Point2D(selection.x, selection.y), null)),
+                    Math.abs(1 / (selection.k * getScale())));
+            this.g2d = g2d;
+            g2d.setColor(new Color(0, 0, 255, 160));
+            g2d.setStroke(new BasicStroke(2f));
+        }
+
+        public void draw(){
+            super.draw(g2d);
+        }
+    }
+    
     private class Generator extends Circle2D {
         Graphics2D g2d;
         public Generator(Point2D c, double r, Graphics2D g2d){
@@ -0,0 +1,173 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.frontend;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import org.ignisf.iag.descartes.ApollonianLimits;
+import org.ignisf.iag.descartes.ApollonianSet;
+import org.ignisf.iag.descartes.SoddyCircle;
+import org.ignisf.iag.descartes.SoddyCircleIndex;
+
+/**
+ * Finds the circles of a gasket under the mouse.
+ *
+ * The tiles are rendered from sets of their own, which are dropped once
+ * rasterized, so a picker generates the gasket over a region around the
+ * panel at the zoom of the panel and indexes it. The region reaches past
+ * the panel by MARGIN times its size on every side, so the picker serves
+ * until the gasket, its level or zoom change or the panel is panned well
+ * away. Like TileRenderer, a picker holds everything it needs and can be
+ * built on any thread.
+ *
+ * The coordinates are those of the tiles - of the gasket scaled by the
+ * zoom, without the offset of the panel.
+ * @author ignisf
+ */
+public class GasketPicker {
+
+    /**
+     * The margin of the region around the panel, relative to its size.
+     */
+    public static final double MARGIN = 1;
+
+    /**
+     * The generators the picker was created with.
+     */
+    protected final SoddyCircle2D[] source;
+
+    /**
+     * The zoom of the panel relative to the gasket.
+     */
+    protected final double scale;
+
+    /**
+     * The maximum level of the gasket.
+     */
+    protected final int level;
+
+    /**
+     * The radius below which circles are not refined further.
+     */
+    protected final double minRadius;
+
+    /**
+     * The region of the gasket picked from.
+     */
+    protected final Rectangle2D region;
+
+    /**
+     * The index of the gasket, null until built.
+     */
+    protected SoddyCircleIndex index;
+
+    /**
+     * Create a picker of the region around a part of the panel.
+     * @param generators The three generators, unscaled.
+     * @param scale The zoom of the panel.
+     * @param level The maximum level.
+     * @param minRadius The radius below which circles are not refined.
+     * @param visible The part of the panel shown.
+     */
+    public GasketPicker(SoddyCircle2D[] generators, double scale, int level,
+            double minRadius, Rectangle2D visible){
+        this.source = generators;
+        this.scale = scale;
+        this.level = level;
+        this.minRadius = minRadius;
+        double mx = visible.getWidth() * MARGIN;
+        double my = visible.getHeight() * MARGIN;
+        this.region = new Rectangle2D.Double(visible.getX() - mx,
+                visible.getY() - my, visible.getWidth() + 2*mx,
+                visible.getHeight() + 2*my);
+    }
+
+    /**
+     * Get the generators the picker was created with.
+     * @return The generators.
+     */
+    public SoddyCircle2D[] getSource() {
+        return source;
+    }
+
+    /**
+     * Get the region of the gasket picked from.
+     * @return The region.
+     */
+    public Rectangle2D getRegion() {
+        return (Rectangle2D) region.clone();
+    }
+
+    /**
+     * Check whether the picker picks from the gasket shown.
+     * @param generators The three generators, unscaled.
+     * @param scale The zoom of the panel.
+     * @param level The maximum level.
+     * @param minRadius The radius below which circles are not refined.
+     * @param visible The part of the panel shown.
+     * @return Whether the picker covers the gasket shown.
+     */
+    public boolean covers(SoddyCircle2D[] generators, double scale, int level,
+            double minRadius, Rectangle2D visible){
+        return generators == source && scale == this.scale
+                && level == this.level && minRadius == this.minRadius
+                && region.contains(visible);
+    }
+
+    /**
+     * Generate the region of the gasket and index it, in the common pool.
+     * @throws CancellationException When the calling thread is interrupted.
+     */
+    public void build(){
+        SoddyCircle[] g = new SoddyCircle[3];
+        for (int i = 0; i < 3; i++) {
+            SoddyCircle c = source[i].getSoddyCircle();
+            g[i] = new SoddyCircle(c.x * scale, c.y * scale, c.k / scale,
+                    c.l);
+        }
+
+        ApollonianLimits limits = new ApollonianLimits(level);
+        limits.setMinRadius(minRadius);
+        limits.setViewport(region);
+        ApollonianSet set = new ApollonianSet(g[0], g[1], g[2], limits,
+                ForkJoinPool.commonPool());
+        index = set.getIndex(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Check whether the picker is built.
+     * @return Whether the gasket is indexed.
+     */
+    public boolean isBuilt() {
+        return index != null;
+    }
+
+    /**
+     * Find the innermost circle containing a point.
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The circle, null if there is none or the picker is not built.
+     */
+    public SoddyCircle find(double x, double y){
+        if (index == null) return null;
+        int i = index.find(x, y);
+        return i < 0 ? null : index.getCircles().get(i);
+    }
+
+    /**
+     * Find the circles intersecting a rectangle.
+     * @param r The rectangle.
+     * @return The circles, none if the picker is not built.
+     */
+    public List<SoddyCircle> intersect(Rectangle2D r){
+        List<SoddyCircle> circles = new ArrayList<SoddyCircle>();
+        if (index == null) return circles;
+        for (int i : index.intersect(r)) circles.add(index.getCircles().get(i));
+        return circles;
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.frontend;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import org.ignisf.iag.descartes.ApollonianLimits;
+import org.ignisf.iag.descartes.ApollonianSet;
+import org.ignisf.iag.descartes.SoddyCircleStore;
+
+/**
+ * Generates a gasket and rasterizes it into an image.
+ *
+ * A renderer holds everything it needs, so once created it can run on any
+ * thread - the panel creates one on the event dispatch thread and a
+ * background task runs it into a back buffer.
+ *
+ * Circles below the minimum radius of the limits get no daughters and are
+ * mostly smaller than a pixel, so instead of being stroked they are plotted
+ * as the coverage of their circumference in the pixel of their center.
+ * @author ignisf
+ */
+public class GasketRenderer {
+
+    /**
+     * The number of steps the progress of the rasterization is reported in.
+     */
+    private static final int PROGRESS_STEPS = 32;
+
+    /**
+     * Interruption is checked every CANCEL_MASK + 1 circles.
+     */
+    private static final int CANCEL_MASK = 255;
+
+    /**
+     * The width of the stroke of the circles.
+     */
+    public static final float STROKE_WIDTH = 0.3f;
+
+    /**
+     * The three generators.
+     */
+    protected final SoddyCircle2D[] generators;
+
+    /**
+     * The limits of the generation.
+     */
+    protected final ApollonianLimits limits;
+
+    /**
+     * The size of the image.
+     */
+    protected final int width, height;
+
+    /**
+     * The generated gasket.
+     */
+    protected ApollonianSet set;
+
+    /**
+     * The time spent generating and rasterizing, in nanoseconds.
+     */
+    protected long generationTime, rasterizationTime;
+
+    /**
+     * The percentage of the rasterization done.
+     */
+    protected int progress;
+    public static final String PROP_PROGRESS = "progress";
+    private PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
+
+    /**
+     * Create a renderer.
+     * @param generators The three generators.
+     * @param limits The limits of the generation.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     */
+    public GasketRenderer(SoddyCircle2D[] generators, ApollonianLimits limits,
+            int width, int height){
+        this.generators = generators.clone();
+        this.limits = limits;
+        this.width = Math.max(width, 1);
+        this.height = Math.max(height, 1);
+    }
+
+    /**
+     * Get the generators
+     *
+     * @return the generators
+     */
+    public SoddyCircle2D[] getGenerators() {
+        return generators.clone();
+    }
+
+    /**
+     * Get the value of limits
+     *
+     * @return the value of limits
+     */
+    public ApollonianLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Get the width of the image.
+     * @return The width.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the image.
+     * @return The height.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the value of set
+     *
+     * @return the value of set, null if not generated yet
+     */
+    public ApollonianSet getSet() {
+        return set;
+    }
+
+    /**
+     * Set the value of set, to reuse an already generated gasket
+     *
+     * @param set new value of set
+     */
+    public void setSet(ApollonianSet set) {
+        this.set = set;
+    }
+
+    /**
+     * Get the value of progress
+     *
+     * @return the value of progress
+     */
+    public int getProgress() {
+        return progress;
+    }
+
+    /**
+     * Set the value of progress
+     *
+     * @param progress new value of progress
+     */
+    protected void setProgress(int progress) {
+        int oldProgress = this.progress;
+        this.progress = progress;
+        propertyChangeSupport.firePropertyChange(PROP_PROGRESS, oldProgress, progress);
+    }
+
+    /**
+     * Add PropertyChangeListener.
+     *
+     * @param listener
+     */
+    public void addPropertyChangeListener(PropertyChangeListener listener) {
+        propertyChangeSupport.addPropertyChangeListener(listener);
+    }
+
+    /**
+     * Remove PropertyChangeListener.
+     *
+     * @param listener
+     */
+    public void removePropertyChangeListener(PropertyChangeListener listener) {
+        propertyChangeSupport.removePropertyChangeListener(listener);
+    }
+
+    /**
+     * Get the time spent generating the gasket
+     *
+     * @return the time in nanoseconds, 0 if it was not generated here
+     */
+    public long getGenerationTime() {
+        return generationTime;
+    }
+
+    /**
+     * Get the time spent rasterizing the gasket
+     *
+     * @return the time in nanoseconds of the last render
+     */
+    public long getRasterizationTime() {
+        return rasterizationTime;
+    }
+
+    /**
+     * Generate the gasket unless it has been generated or set already.
+     * @return The gasket.
+     */
+    public ApollonianSet generate(){
+        if (set == null) {
+            long start = System.nanoTime();
+            set = new ApollonianSet(generators[0].getSoddyCircle(),
+                    generators[1].getSoddyCircle(),
+                    generators[2].getSoddyCircle(), limits,
+                    ForkJoinPool.commonPool());
+            generationTime = System.nanoTime() - start;
+        }
+        return set;
+    }
+
+    /**
+     * Generate the gasket if needed and rasterize it into a new image with
+     * a transparent background.
+     * @return The image.
+     * @throws CancellationException When the calling thread is interrupted.
+     */
+    public BufferedImage render(){
+        SoddyCircleStore store = this.generate().getStore();
+        long start = System.nanoTime();
+        BufferedImage image = new BufferedImage(width, height,
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setColor(new Color(0, 0, 0, 255));
+            g2d.setStroke(new BasicStroke(STROKE_WIDTH));
+
+            float[] coverage = limits.getMinRadius() > 0
+                    ? new float[width * height] : null;
+            this.draw(g2d, store, coverage);
+            if (coverage != null) this.plot(image, coverage);
+        } finally {
+            g2d.dispose();
+        }
+        rasterizationTime = System.nanoTime() - start;
+        return image;
+    }
+
+    /**
+     * Draw the circles of a store, reporting the progress as it goes.
+     *
+     * The circles are read straight from the arrays of the store into one
+     * reused shape, so drawing allocates nothing per circle. Appending them
+     * to a Path2D and stroking it once per batch was measured to be slower
+     * with antialiasing, as the cost is in the rasterization and a larger
+     * path only widens the area it scans.
+     * @param g2d The graphics context.
+     * @param sc The circles.
+     * @param coverage The coverage of the pixels, accumulating the circles
+     * below the minimum radius, or null to stroke all circles.
+     */
+    protected void draw(Graphics2D g2d, SoddyCircleStore sc,
+            float[] coverage){
+        double[] x = sc.getXs(), y = sc.getYs(), k = sc.getKs();
+        int size = sc.size();
+        int step = Math.max(size / PROGRESS_STEPS, 1);
+        double minRadius = limits.getMinRadius();
+
+        Ellipse2D.Double e = new Ellipse2D.Double();
+        for (int i = 0; i < size; i++){
+            if (i % step == 0) this.setProgress((int) (100L * i / size));
+            if ((i & CANCEL_MASK) == 0 && Thread.currentThread().isInterrupted())
+                throw new CancellationException("Rendering interrupted");
+
+            double r = Math.abs(1d/k[i]);
+            if (Double.isInfinite(r)) continue;
+            if (coverage != null && r < minRadius) {
+                int px = (int) Math.floor(x[i]), py = (int) Math.floor(y[i]);
+                if (px >= 0 && px < width && py >= 0 && py < height)
+                    coverage[py * width + px] += 2*Math.PI*r*STROKE_WIDTH;
+                continue;
+            }
+            e.setFrame(x[i] - r, y[i] - r, 2*r, 2*r);
+            g2d.draw(e);
+        }
+        this.setProgress(100);
+    }
+
+    /**
+     * Blend the accumulated coverage of the sub-pixel circles into an
+     * image, in the color of the strokes.
+     * @param image The image.
+     * @param coverage The coverage of the pixels.
+     */
+    protected void plot(BufferedImage image, float[] coverage){
+        for (int py = 0, i = 0; py < height; py++){
+            for (int px = 0; px < width; px++, i++){
+                if (coverage[i] <= 0) continue;
+
+                float a = Math.min(coverage[i], 1f);
+                float da = (image.getRGB(px, py) >>> 24) / 255f;
+                int alpha = Math.round((a + da * (1 - a)) * 255);
+                image.setRGB(px, py, alpha << 24);
+            }
+        }
+    }
+}
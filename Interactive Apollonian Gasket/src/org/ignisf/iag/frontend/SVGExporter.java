@@ -0,0 +1,249 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.frontend;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Spliterators;
+import java.util.zip.GZIPOutputStream;
+import org.ignisf.iag.descartes.ApollonianLimits;
+import org.ignisf.iag.descartes.ApollonianSet;
+import org.ignisf.iag.descartes.SoddyCircle;
+
+/**
+ * Streaming SVG export of gaskets.
+ *
+ * The circles are written as they are generated by a depth first lazy
+ * traversal of the set, so neither the set nor a document is held in
+ * memory and the memory used does not depend on the size of the output.
+ * @author ignisf
+ */
+public class SVGExporter {
+
+    /**
+     * The size of the output buffer in chars.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Powers of ten for the fixed point formatting.
+     */
+    private static final long[] POWERS = {1L, 10L, 100L, 1000L, 10000L,
+            100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+
+    /**
+     * The three generators.
+     */
+    protected final SoddyCircle[] generators;
+
+    /**
+     * The limits of the generation.
+     */
+    protected final ApollonianLimits limits;
+
+    /**
+     * The size of the document.
+     */
+    protected final int width, height;
+
+    /**
+     * The number of decimals of the coordinates.
+     */
+    protected int precision = 3;
+
+    /**
+     * Whether the output is compressed with gzip.
+     */
+    protected boolean gzip;
+
+    /**
+     * The width of the stroke of the circles.
+     */
+    protected double strokeWidth = GasketRenderer.STROKE_WIDTH;
+
+    /**
+     * Create an exporter. Circles below the minimum radius of the limits
+     * are not written.
+     * @param generators The three generators.
+     * @param limits The limits of the generation.
+     * @param width The width of the document.
+     * @param height The height of the document.
+     */
+    public SVGExporter(SoddyCircle2D[] generators, ApollonianLimits limits,
+            int width, int height){
+        this.generators = new SoddyCircle[3];
+        for (int i = 0; i < 3; i++)
+            this.generators[i] = generators[i].getSoddyCircle();
+        this.limits = limits;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Get the value of precision
+     *
+     * @return the value of precision
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Set the value of precision
+     *
+     * @param precision new value of precision, 0 to 9 decimals
+     */
+    public void setPrecision(int precision) {
+        if (precision < 0 || precision >= POWERS.length)
+            throw new IllegalArgumentException("Illegal precision: "
+                    + precision);
+        this.precision = precision;
+    }
+
+    /**
+     * Get the value of gzip
+     *
+     * @return the value of gzip
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Set the value of gzip
+     *
+     * @param gzip new value of gzip
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Get the value of strokeWidth
+     *
+     * @return the value of strokeWidth
+     */
+    public double getStrokeWidth() {
+        return strokeWidth;
+    }
+
+    /**
+     * Set the value of strokeWidth
+     *
+     * @param strokeWidth new value of strokeWidth
+     */
+    public void setStrokeWidth(double strokeWidth) {
+        this.strokeWidth = strokeWidth;
+    }
+
+    /**
+     * Export to a file.
+     * @param file The file.
+     * @return The number of circles written.
+     * @throws IOException When writing fails.
+     */
+    public long write(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            return this.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Export to a channel. The channel is not closed.
+     * @param channel The channel.
+     * @return The number of circles written.
+     * @throws IOException When writing fails.
+     */
+    public long write(WritableByteChannel channel) throws IOException {
+        return this.write(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Export to a stream. The stream is flushed but not closed.
+     * @param out The stream.
+     * @return The number of circles written.
+     * @throws IOException When writing fails.
+     */
+    public long write(OutputStream out) throws IOException {
+        GZIPOutputStream z = gzip ? new GZIPOutputStream(out, 1 << 16) : null;
+        Writer w = new BufferedWriter(new OutputStreamWriter(
+                z != null ? z : out, Charset.forName("UTF-8")), BUFFER_SIZE);
+
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"")
+                .append(width).append("\" height=\"").append(height)
+                .append("\" viewBox=\"0 0 ").append(width).append(' ')
+                .append(height).append("\">\n");
+        sb.append("<g fill=\"none\" stroke=\"black\" stroke-width=\"");
+        this.append(sb, strokeWidth);
+        sb.append("\">\n");
+        w.append(sb);
+
+        double minRadius = limits.getMinRadius();
+        long count = 0;
+        Iterator<SoddyCircle> circles = Spliterators.iterator(
+                ApollonianSet.spliterator(generators[0], generators[1],
+                generators[2], limits, ApollonianSet.Order.DEPTH_FIRST));
+        while (circles.hasNext()) {
+            SoddyCircle c = circles.next();
+            double r = Math.abs(1d / c.k);
+            if (r < minRadius || Double.isInfinite(r)) continue;
+
+            sb.setLength(0);
+            sb.append("<circle cx=\"");
+            this.append(sb, c.x);
+            sb.append("\" cy=\"");
+            this.append(sb, c.y);
+            sb.append("\" r=\"");
+            this.append(sb, r);
+            sb.append("\"/>\n");
+            w.append(sb);
+            count++;
+        }
+
+        w.append("</g>\n</svg>\n");
+        w.flush();
+        if (z != null) z.finish();
+        out.flush();
+        return count;
+    }
+
+    /**
+     * Append a number in fixed point with at most precision decimals and no
+     * trailing zeros - much cheaper than String.format().
+     * @param sb The buffer.
+     * @param v The number.
+     */
+    protected void append(StringBuilder sb, double v){
+        long p = POWERS[precision];
+        long n = Math.round(Math.abs(v) * p);
+        if (n != 0 && v < 0) sb.append('-');
+        sb.append(n / p);
+
+        long f = n % p;
+        if (f == 0) return;
+        int d = precision;
+        while (f % 10 == 0) {
+            f /= 10;
+            d--;
+        }
+        sb.append('.');
+        for (long t = POWERS[d - 1]; t > f; t /= 10) sb.append('0');
+        sb.append(f);
+    }
+}
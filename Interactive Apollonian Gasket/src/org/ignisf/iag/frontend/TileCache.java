@@ -0,0 +1,181 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.frontend;
+
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory bounded LRU cache of rendered gasket tiles.
+ *
+ * The canvas is split into square tiles of TILE_SIZE pixels, aligned to the
+ * gasket scaled to the current zoom rather than to the panel, so panning
+ * only exposes new tiles and returning to an earlier view finds the old
+ * ones. When the cache grows over its capacity the least recently drawn
+ * tiles are dropped.
+ * @author ignisf
+ */
+public class TileCache {
+
+    /**
+     * The size of a tile in pixels.
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * The memory a tile takes, in bytes.
+     */
+    public static final long TILE_BYTES = 4L * TILE_SIZE * TILE_SIZE;
+
+    /**
+     * The tiles, in order of access.
+     */
+    private final LinkedHashMap<Key, BufferedImage> tiles;
+
+    /**
+     * The maximum number of tiles held.
+     */
+    private final int capacity;
+
+    /**
+     * Create a cache.
+     * @param bytes The memory the tiles may take.
+     */
+    public TileCache(long bytes){
+        this.capacity = (int) Math.max(bytes / TILE_BYTES, 1);
+        this.tiles = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Key, BufferedImage> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get a tile.
+     * @param key The key of the tile.
+     * @return The tile, null if it is not cached.
+     */
+    public BufferedImage get(Key key){
+        return tiles.get(key);
+    }
+
+    /**
+     * Check whether a tile is cached without touching its position in the
+     * LRU order.
+     * @param key The key of the tile.
+     * @return Whether it is cached.
+     */
+    public boolean contains(Key key){
+        return tiles.containsKey(key);
+    }
+
+    /**
+     * Add a tile.
+     * @param key The key of the tile.
+     * @param tile The tile.
+     */
+    public void put(Key key, BufferedImage tile){
+        tiles.put(key, tile);
+    }
+
+    /**
+     * Add tiles.
+     * @param tiles The tiles.
+     */
+    public void putAll(Map<Key, BufferedImage> tiles){
+        this.tiles.putAll(tiles);
+    }
+
+    /**
+     * Drop all tiles.
+     */
+    public void clear(){
+        tiles.clear();
+    }
+
+    /**
+     * Get the number of cached tiles.
+     * @return The number of tiles.
+     */
+    public int size(){
+        return tiles.size();
+    }
+
+    /**
+     * Get the maximum number of cached tiles.
+     * @return The capacity.
+     */
+    public int getCapacity(){
+        return capacity;
+    }
+
+    /**
+     * Key of a tile - the zoom and generation limits it was rendered at and
+     * its coordinates in tiles.
+     */
+    public static final class Key {
+
+        /**
+         * The scale of the gasket. Tiles and their sets are not shared
+         * between scales.
+         */
+        public final double scale;
+
+        /**
+         * The maximum level of the gasket.
+         */
+        public final int level;
+
+        /**
+         * The minimum radius of the gasket.
+         */
+        public final double minRadius;
+
+        /**
+         * The coordinates of the tile. Longs, as at the zooms that need
+         * extended precision the tiles are counted in hundreds of billions.
+         */
+        public final long x, y;
+
+        /**
+         * Create a key.
+         * @param scale The scale of the gasket.
+         * @param level The maximum level of the gasket.
+         * @param minRadius The minimum radius of the gasket.
+         * @param x The x coordinate of the tile.
+         * @param y The y coordinate of the tile.
+         */
+        public Key(double scale, int level, double minRadius, long x, long y){
+            this.scale = scale;
+            this.level = level;
+            this.minRadius = minRadius;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return Double.compare(scale, k.scale) == 0 && level == k.level
+                    && Double.compare(minRadius, k.minRadius) == 0
+                    && x == k.x && y == k.y;
+        }
+
+        @Override
+        public int hashCode() {
+            long s = Double.doubleToLongBits(scale);
+            long r = Double.doubleToLongBits(minRadius);
+            int h = (int) (s ^ (s >>> 32));
+            h = 31*h + (int) (r ^ (r >>> 32));
+            h = 31*h + level;
+            h = 31*h + (int) (x ^ (x >>> 32));
+            return 31*h + (int) (y ^ (y >>> 32));
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.frontend;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import org.ignisf.iag.descartes.ApollonianLimits;
+import org.ignisf.iag.descartes.ApollonianSet;
+import org.ignisf.iag.descartes.SoddyCircle;
+
+/**
+ * Renders tiles of a gasket.
+ *
+ * Each tile is rendered by a GasketRenderer of its own, with the generators
+ * moved to the tile and the viewport set to it, so only the part of the
+ * gasket that reaches the tile is generated. Given a TileSetCache, the sets
+ * of the tiles are kept, so re-rendering a tile at another level generates
+ * only the levels added. Like GasketRenderer, a tile renderer holds
+ * everything it needs and can run on any thread.
+ *
+ * A tile of another zoom is generated anew, from the generators scaled in
+ * double. A set holds its circles in the pixels of its tile, and the
+ * quadruples pruned by the viewport and the minimum radius are dropped, so
+ * it cannot be refined to cover a tile of another zoom - that tile reaches
+ * past it and shows circles it left out. The tiles of the last zoom are
+ * drawn scaled until those of the new one are rendered.
+ * @author ignisf
+ */
+public class TileRenderer {
+
+    /**
+     * The generators the renderer was created with.
+     */
+    protected final SoddyCircle2D[] source;
+
+    /**
+     * The three generators, unscaled.
+     */
+    protected final SoddyCircle[] generators;
+
+    /**
+     * The tiles to render.
+     */
+    protected final List<TileCache.Key> tiles;
+
+    /**
+     * The sets of the tiles, null to generate every tile anew.
+     */
+    protected final TileSetCache sets;
+
+    /**
+     * The number of tiles rendered.
+     */
+    protected int progress;
+
+    /**
+     * What the last render cost.
+     */
+    protected FrameMetrics metrics;
+    public static final String PROP_PROGRESS = "progress";
+    private PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
+
+    /**
+     * Create a tile renderer.
+     * @param generators The three generators, unscaled.
+     * @param tiles The tiles to render.
+     */
+    public TileRenderer(SoddyCircle2D[] generators,
+            Collection<TileCache.Key> tiles){
+        this(generators, tiles, null);
+    }
+
+    /**
+     * Create a tile renderer reusing the sets of the tiles.
+     * @param generators The three generators, unscaled.
+     * @param tiles The tiles to render.
+     * @param sets The sets of the tiles, null to generate them anew.
+     */
+    public TileRenderer(SoddyCircle2D[] generators,
+            Collection<TileCache.Key> tiles, TileSetCache sets){
+        this.source = generators;
+        this.sets = sets;
+        this.generators = new SoddyCircle[3];
+        for (int i = 0; i < 3; i++)
+            this.generators[i] = generators[i].getSoddyCircle();
+        this.tiles = new ArrayList<TileCache.Key>(tiles);
+    }
+
+    /**
+     * Get the generators the renderer was created with.
+     * @return The generators.
+     */
+    public SoddyCircle2D[] getSource() {
+        return source;
+    }
+
+    /**
+     * Get the tiles to render.
+     * @return The keys of the tiles.
+     */
+    public List<TileCache.Key> getTiles() {
+        return tiles;
+    }
+
+    /**
+     * Get what the last render cost.
+     * @return The metrics, null if not rendered yet.
+     */
+    public FrameMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the value of progress
+     *
+     * @return the value of progress
+     */
+    public int getProgress() {
+        return progress;
+    }
+
+    /**
+     * Set the value of progress
+     *
+     * @param progress new value of progress
+     */
+    protected void setProgress(int progress) {
+        int oldProgress = this.progress;
+        this.progress = progress;
+        propertyChangeSupport.firePropertyChange(PROP_PROGRESS, oldProgress, progress);
+    }
+
+    /**
+     * Add PropertyChangeListener.
+     *
+     * @param listener
+     */
+    public void addPropertyChangeListener(PropertyChangeListener listener) {
+        propertyChangeSupport.addPropertyChangeListener(listener);
+    }
+
+    /**
+     * Remove PropertyChangeListener.
+     *
+     * @param listener
+     */
+    public void removePropertyChangeListener(PropertyChangeListener listener) {
+        propertyChangeSupport.removePropertyChangeListener(listener);
+    }
+
+    /**
+     * Render the tiles and record what it cost. The bytes allocated are
+     * those of the calling thread, which does all but the parallel part of
+     * the generation.
+     *
+     * Interrupting the calling thread cancels the render within a few
+     * milliseconds, dropping the tiles rendered so far.
+     * @return The tiles by key.
+     * @throws CancellationException When the calling thread is interrupted.
+     */
+    public Map<TileCache.Key, BufferedImage> render(){
+        Map<TileCache.Key, BufferedImage> images =
+                new LinkedHashMap<TileCache.Key, BufferedImage>();
+        long allocated = FrameMetrics.allocatedBytes();
+        long circles = 0, generation = 0, rasterization = 0;
+        for (TileCache.Key key : tiles) {
+            if (Thread.currentThread().isInterrupted())
+                throw new CancellationException("Rendering interrupted");
+            GasketRenderer r = this.createRenderer(key);
+            try {
+                generation += this.reuse(r, key);
+                images.put(key, r.render());
+            } finally {
+                if (sets != null && r.getSet() != null)
+                    sets.put(source, key, r.getSet());
+            }
+            circles += r.getSet().size();
+            generation += r.getGenerationTime();
+            rasterization += r.getRasterizationTime();
+            this.setProgress(images.size());
+        }
+        if (allocated >= 0)
+            allocated = FrameMetrics.allocatedBytes() - allocated;
+        metrics = new FrameMetrics(tiles.isEmpty() ? 0 : tiles.get(0).level,
+                tiles.size(), circles, generation, rasterization, allocated);
+        return images;
+    }
+
+    /**
+     * Hand a renderer the cached set of its tile, brought to the level of
+     * the tile.
+     * @param r The renderer.
+     * @param key The key of the tile.
+     * @return The time spent changing the level in nanoseconds.
+     * @throws CancellationException When the calling thread is interrupted.
+     */
+    protected long reuse(GasketRenderer r, TileCache.Key key){
+        ApollonianSet set = sets == null ? null : sets.take(source, key);
+        if (set == null) return 0;
+
+        long start = System.nanoTime();
+        r.setSet(set);
+        set.setLevel(key.level, ForkJoinPool.commonPool());
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Create the renderer of a tile.
+     * @param key The key of the tile.
+     * @return The renderer.
+     */
+    protected GasketRenderer createRenderer(TileCache.Key key){
+        double dx = (double) key.x * TileCache.TILE_SIZE;
+        double dy = (double) key.y * TileCache.TILE_SIZE;
+
+        SoddyCircle2D[] g = new SoddyCircle2D[3];
+        for (int i = 0; i < 3; i++) {
+            SoddyCircle c = generators[i];
+            g[i] = new SoddyCircle2D(c.x * key.scale - dx, c.y * key.scale - dy,
+                    c.k / key.scale, c.l);
+        }
+
+        ApollonianLimits limits = new ApollonianLimits(key.level);
+        limits.setMinRadius(key.minRadius);
+        limits.setViewport(new Rectangle(TileCache.TILE_SIZE,
+                TileCache.TILE_SIZE));
+        return new GasketRenderer(g, limits, TileCache.TILE_SIZE,
+                TileCache.TILE_SIZE);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * $Id$
+ */
+
+package org.ignisf.iag.frontend;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.ignisf.iag.descartes.ApollonianSet;
+
+/**
+ * Memory bounded LRU cache of the sets the tiles were rendered from.
+ *
+ * The sets are kept by tile whatever their level, so a change of the level
+ * re-renders the tiles from their old sets, cut back or deepened by the
+ * levels added only. The zoom is part of the key, as a set covers its tile
+ * at its zoom only. A set is taken out of the cache while it is rendered
+ * from and put back after, so no two renderers change it at once. The cache
+ * holds the sets of one gasket - sets of other generators are not put.
+ * @author ignisf
+ */
+public class TileSetCache {
+
+    /**
+     * The sets, in order of access, by the keys of their tiles at level 0.
+     */
+    private final LinkedHashMap<TileCache.Key, ApollonianSet> sets =
+            new LinkedHashMap<TileCache.Key, ApollonianSet>(16, 0.75f, true);
+
+    /**
+     * The memory the sets may take.
+     */
+    private final long capacity;
+
+    /**
+     * The memory the sets take.
+     */
+    private long bytes;
+
+    /**
+     * The generators of the sets.
+     */
+    private SoddyCircle2D[] source;
+
+    /**
+     * Create a cache.
+     * @param bytes The memory the sets may take.
+     */
+    public TileSetCache(long bytes){
+        this.capacity = bytes;
+    }
+
+    /**
+     * Take the set of a tile out of the cache.
+     * @param source The generators of the tile.
+     * @param key The key of the tile.
+     * @return The set, null if it is not cached.
+     */
+    public synchronized ApollonianSet take(SoddyCircle2D[] source,
+            TileCache.Key key){
+        if (source != this.source) return null;
+        ApollonianSet set = sets.remove(TileSetCache.unleveled(key));
+        if (set != null) bytes -= set.getBytes();
+        return set;
+    }
+
+    /**
+     * Put the set of a tile in the cache, dropping the least recently used
+     * sets over the capacity.
+     * @param source The generators of the tile.
+     * @param key The key of the tile.
+     * @param set The set.
+     */
+    public synchronized void put(SoddyCircle2D[] source, TileCache.Key key,
+            ApollonianSet set){
+        long b = set.getBytes();
+        if (source != this.source || b > capacity) return;
+
+        ApollonianSet old = sets.put(TileSetCache.unleveled(key), set);
+        if (old != null) bytes -= old.getBytes();
+        bytes += b;
+
+        Iterator<ApollonianSet> i = sets.values().iterator();
+        while (bytes > capacity) {
+            bytes -= i.next().getBytes();
+            i.remove();
+        }
+    }
+
+    /**
+     * Drop all sets and hold those of other generators from now on.
+     * @param source The generators, null for none.
+     */
+    public synchronized void clear(SoddyCircle2D[] source){
+        this.source = source;
+        sets.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Get the memory the sets take.
+     * @return The memory in bytes.
+     */
+    public synchronized long getBytes(){
+        return bytes;
+    }
+
+    /**
+     * Get the key of a tile at level 0.
+     * @param key The key of the tile.
+     * @return The key whatever the level.
+     */
+    private static TileCache.Key unleveled(TileCache.Key key){
+        return new TileCache.Key(key.scale, 0, key.minRadius, key.x, key.y);
+    }
+}